@@ -0,0 +1,101 @@
+package colinw.org.space_invaders.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+
+/** JMH version of tools/TickBenchmark: Game.update() (plus snapshot())
+ *  ticks/sec for the same scenarios, with the ship moved and fired at
+ *  random (seeded) before each tick as tools/RandomDriver plays.
+ *
+ *  Scenarios:
+ *    full  - level 1, full 55 alien wave
+ *    late  - level 10, full wave at late level speed
+ *    empty - level 1, single alien left
+ *
+ *  Run with: gradle :core:jmh [-Pjmh='-p scenario=late -prof gc'] */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:-DoEscapeAnalysis")
+public class TickJmh {
+  // same as tools/TickBenchmark so both run the same games
+  private static final long GAME_SEED   = 1;
+  private static final long DRIVER_SEED = 2;
+
+  @Param({"full", "late", "empty"})
+  public String scenario;
+
+  @Setup
+  public void setup() {
+    game_  = new Game(GAME_SEED);
+    frame_ = new Frame();
+    rand_  = new Random(DRIVER_SEED);
+
+    apply();
+  }
+
+  @Benchmark
+  public Frame tick() {
+    play();
+
+    game_.update();
+
+    game_.snapshot(frame_);
+
+    // re-apply the scenario whenever the game leaves it (game over or the
+    // wave advances to the next level)
+    if (game_.isGameOver() || game_.getLevel() != level_)
+      apply();
+
+    return frame_;
+  }
+
+  private void play() {
+    if (rand_.nextInt(10) == 0)
+      game_.hold(rand_.nextInt(3) - 1);
+
+    if (rand_.nextInt(8) == 0) {
+      if (rand_.nextBoolean()) game_.moveShipLeft(); else game_.moveShipRight();
+    }
+
+    if (rand_.nextInt(3) == 0)
+      game_.shipFire();
+  }
+
+  private void apply() {
+    if      (scenario.equals("full"))
+      game_.startLevel(1);
+    else if (scenario.equals("late"))
+      game_.startLevel(10);
+    else if (scenario.equals("empty")) {
+      game_.startLevel(1);
+      game_.thinFormation(1);
+    }
+    else
+      throw new IllegalArgumentException("Unknown scenario: " + scenario);
+
+    level_ = game_.getLevel();
+  }
+
+  private Game   game_;
+  private Frame  frame_;
+  private Random rand_;
+  private int    level_;
+}
@@ -0,0 +1,71 @@
+package colinw.org.space_invaders;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/** HUD text item ("Score: 120") aligned at a fixed position (x is the
+ *  alignment point, y the baseline, in view pixels). The string and
+ *  its measured position are only rebuilt when the value changes, so
+ *  drawing an unchanged item does no formatting, measuring or allocation. */
+class HudText {
+  static final int LEFT   = 0;
+  static final int CENTER = 1;
+  static final int RIGHT  = 2;
+
+  HudText(String label, int align, int x, int y, Paint paint) {
+    label_  = label;
+    align_  = align;
+    x_      = x;
+    y_      = y;
+    paint_  = paint;
+    bounds_ = new Rect();
+    text_   = null;
+    value_  = 0;
+    drawX_  = x;
+  }
+
+  /** Draw label followed by value. */
+  void draw(Canvas c, int value) {
+    if (text_ == null || value != value_) {
+      value_ = value;
+
+      layout(label_ + value);
+    }
+
+    c.drawText(text_, drawX_, y_, paint_);
+  }
+
+  /** Draw the label on its own. */
+  void draw(Canvas c) {
+    if (text_ == null)
+      layout(label_);
+
+    c.drawText(text_, drawX_, y_, paint_);
+  }
+
+  private void layout(String text) {
+    text_ = text;
+
+    if (align_ == LEFT) {
+      drawX_ = x_;
+      return;
+    }
+
+    paint_.getTextBounds(text_, 0, text_.length(), bounds_);
+
+    if (align_ == CENTER)
+      drawX_ = x_ - bounds_.width()/2;
+    else
+      drawX_ = x_ - bounds_.width();
+  }
+
+  private String label_;
+  private int    align_;
+  private int    x_, y_;
+  private Paint  paint_;
+  private Rect   bounds_;
+  private String text_;
+  private int    value_;
+  private int    drawX_;
+}
@@ -0,0 +1,106 @@
+package colinw.org.space_invaders;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+/** Owns the SoundPool for the game. Each raw resource is loaded once no
+ *  matter how many sound ids use it, a sound only plays once its sample
+ *  has finished loading, and every play carries the sound's priority so
+ *  that when all voices are busy SoundPool steals the least important
+ *  one instead of dropping the new sound at random. */
+class SoundRegistry implements SoundPool.OnLoadCompleteListener {
+  private static final String TAG = "SpaceInvaders";
+
+  SoundRegistry(Context context, int numSounds, int maxVoices) {
+    context_  = context;
+    pool_     = new SoundPool(maxVoices, AudioManager.STREAM_MUSIC, 0);
+    samples_  = new SparseIntArray();
+    sample_   = new int [numSounds];
+    priority_ = new int [numSounds];
+    loaded_   = new boolean [numSounds];
+    pending_  = 0;
+
+    pool_.setOnLoadCompleteListener(this);
+  }
+
+  /** Map sound id to raw resource id and start loading it (asynchronously)
+   *  unless another sound already uses the same resource. */
+  synchronized void register(int sound, int resId, int priority) {
+    if (pool_ == null) return; // released
+
+    int sample = samples_.get(resId, 0);
+
+    if (sample == 0) {
+      sample = pool_.load(context_, resId, 1);
+
+      samples_.put(resId, sample);
+
+      ++pending_;
+    }
+    else
+      loaded_[sound] = isSampleLoaded(sample);
+
+    sample_  [sound] = sample;
+    priority_[sound] = priority;
+  }
+
+  @Override
+  public synchronized void onLoadComplete(SoundPool pool, int sample, int status) {
+    --pending_;
+
+    if (status != 0) {
+      Log.w(TAG, "sound sample " + sample + " failed to load (" + status + ")");
+      return;
+    }
+
+    for (int i = 0; i < sample_.length; ++i)
+      if (sample_[i] == sample)
+        loaded_[i] = true;
+  }
+
+  /** Play sound if its sample is ready, returns false if it was skipped. */
+  synchronized boolean play(int sound) {
+    if (! loaded_[sound]) return false;
+
+    return (pool_.play(sample_[sound], 1, 1, priority_[sound], 0, 1) != 0);
+  }
+
+  /** True when no sample load is outstanding. */
+  synchronized boolean isReady() { return pending_ == 0; }
+
+  /** Number of distinct samples loaded into the pool. */
+  synchronized int numSamples() { return samples_.size(); }
+
+  /** Free the pool, sounds registered or played after are skipped. */
+  synchronized void release() {
+    if (pool_ == null) return;
+
+    pool_.release();
+
+    pool_ = null;
+
+    samples_.clear();
+
+    for (int i = 0; i < loaded_.length; ++i)
+      loaded_[i] = false;
+  }
+
+  private boolean isSampleLoaded(int sample) {
+    for (int i = 0; i < sample_.length; ++i)
+      if (sample_[i] == sample && loaded_[i])
+        return true;
+
+    return false;
+  }
+
+  private Context         context_;
+  private SoundPool       pool_;
+  private SparseIntArray  samples_;
+  private int             sample_[];
+  private int             priority_[];
+  private boolean         loaded_[];
+  private int             pending_;
+}
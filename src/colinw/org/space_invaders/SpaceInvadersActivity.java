@@ -1,21 +1,65 @@
 package colinw.org.space_invaders;
 
+import java.io.File;
+
 import android.app.Activity;
 import android.os.Bundle;
 
 public class SpaceInvadersActivity extends Activity {
+  private static final String GAME_STATE = "game_state";
+
+  // ticks/sec the game runs at, the faster rate on displays that refresh
+  // at least that often
+  private static final int TICK_RATE      = 60;
+  private static final int FAST_TICK_RATE = 120;
+
   /** Called when the activity is first created. */
   @Override
   public void onCreate(Bundle savedInstanceState) {
+    long startTime = System.nanoTime();
+
     super.onCreate(savedInstanceState);
 
-    view_ = new SpaceInvadersView(this);
+    // continue a game interrupted by rotation or a process kill
+    byte savedState[] = (savedInstanceState != null ?
+                         savedInstanceState.getByteArray(GAME_STATE) : null);
+
+    int refreshRate = Math.round(getWindowManager().getDefaultDisplay().getRefreshRate());
+
+    int tickRate = (refreshRate >= FAST_TICK_RATE ? FAST_TICK_RATE : TICK_RATE);
+
+    view_ = new SpaceInvadersView(this, startTime, savedState, tickRate);
 
     setContentView(view_);
 
     view_.requestFocus();
   }
 
+  @Override
+  protected void onPause() {
+    super.onPause();
+
+    // keep the session's input so it can be replayed (tools Replay)
+    view_.saveInputLog(new File(getFilesDir(), "last_session.log"));
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+
+    view_.destroy();
+  }
+
+  @Override
+  protected void onSaveInstanceState(Bundle outState) {
+    super.onSaveInstanceState(outState);
+
+    byte state[] = view_.saveState();
+
+    if (state != null)
+      outState.putByteArray(GAME_STATE, state);
+  }
+
   @Override
   public void onBackPressed() {
     if (! view_.onBackPressed())
@@ -1,21 +1,78 @@
 package colinw.org.space_invaders;
 
-import java.util.Random;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.media.AudioManager;
-import android.media.SoundPool;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 
-public class SpaceInvadersView extends View {
+import colinw.org.space_invaders.core.BitMask;
+import colinw.org.space_invaders.core.DrawList;
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.FrameBuffer;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.GameListener;
+import colinw.org.space_invaders.core.HighScores;
+import colinw.org.space_invaders.core.Histogram;
+import colinw.org.space_invaders.core.InputLog;
+import colinw.org.space_invaders.core.Profiler;
+import colinw.org.space_invaders.core.Sound;
+import colinw.org.space_invaders.core.Sprite;
+import colinw.org.space_invaders.core.Waves;
+
+public class SpaceInvadersView extends View implements GameListener {
+  private static final String TAG = "SpaceInvaders";
+
+  // height of the score/lives/level text strip
+  private static final int HUD_HEIGHT = 50;
+
+  // timing overlay: one line per profiler phase below the HUD strip
+  private static final int OVERLAY_LINE   = 18;
+  private static final int OVERLAY_HEIGHT = Profiler.COUNT*OVERLAY_LINE + 10;
+
+  // redraw rate while sprites move between ticks (the game's tick rate is
+  // the simulation rate), time ticks run behind after a stall before we
+  // skip ahead (ns) and the largest step (pixels) that is interpolated
+  // rather than jumped
+  private static final int  RENDER_RATE = 60;
+  private static final long MAX_LAG     = 500000000L;
+  private static final int  MAX_LERP    = 100;
+
+  // finger travel (game pixels) from where it went down before the ship
+  // is held moving that way
+  private static final int HOLD_SLOP = 8;
+
+  // longest onSaveInstanceState waits for the tick thread to save (ms)
+  private static final long SAVE_TIMEOUT = 200;
+
+  // best scores kept, in the app's files directory
+  private static final int    NUM_HIGH_SCORES = 10;
+  private static final String HIGH_SCORE_FILE = "high_scores.dat";
+
+  // compiled res/raw/waves.txt, in the app's cache directory
+  private static final String WAVES_CACHE_FILE = "waves.bin";
+
+  // simultaneous sound voices (lowest priority is stolen beyond this)
+  private static final int MAX_VOICES = 8;
+
   private class ViewTimerTask extends TimerTask {
     public ViewTimerTask(SpaceInvadersView view) {
       view_ = view;
@@ -24,1142 +81,862 @@ public class SpaceInvadersView extends View {
     @Override
     public void run() {
       view_.update();
-
-      view_.postInvalidate();
     }
 
     private SpaceInvadersView view_;
   }
 
-  private class Point {
-    Point() {
-      x = 0;
-      y = 0;
-    }
-
-    Point(int x1, int y1) {
-      x = x1;
-      y = y1;
-    }
+  // drawable for each static core sprite id (see Sprite)
+  private static final int SPRITE_RES[] = {
+    R.drawable.player1a,
+    R.drawable.bullet1a,
+    R.drawable.bullet2a,
+    R.drawable.invader1a, R.drawable.invader1b,
+    R.drawable.invader2a, R.drawable.invader2b,
+    R.drawable.invader3a, R.drawable.invader3b,
+    R.drawable.mystery1a,
+    R.drawable.explode1,
+  };
 
-    public int x, y;
-  }
+  // raw resource for each core sound id (see Sound)
+  private static final int SOUND_RES[] = {
+    R.raw.shoot,
+    R.raw.explosion,
+    R.raw.invaderkilled,
+  };
 
-  private class Rect {
-    Rect(int x1_, int y1_, int x2_, int y2_) {
-     x1 = x1_;
-     y1 = y1_;
-     x2 = x2_;
-     y2 = y2_;
-    }
+  /** startTime is System.nanoTime() at the start of onCreate, the time
+   *  to first frame and to ready to play are measured from it. savedState
+   *  (from saveState, may be null) is the game to continue, new games run
+   *  at tickRate ticks/sec (a saved game keeps the rate it was saved at). */
+  SpaceInvadersView(SpaceInvadersActivity activity, long startTime, byte savedState[],
+                    int tickRate) {
+    super(activity);
 
-    boolean overlaps(Rect rect) {
-      if (x2 < rect.x1 || x1 > rect.x2 || y2 < rect.y1 || y1 > rect.y2)
-        return false;
+    activity_ = activity;
+    tickRate_ = tickRate;
 
-      return true;
-    }
+    startTime_      = startTime;
+    firstFrameTime_ = 0;
+    readyTime_      = 0;
+    titleLoaded_    = false;
+    spritesLoaded_  = false;
 
-    public int x1, y1, x2, y2;
-  }
+    timer_ = new Timer();
 
-  private class ImageList {
-    ImageList() {
-      ind_    = 0;
-      images_ = new Vector<Bitmap>();
-    }
+    sounds_ = new SoundRegistry(activity, Sound.COUNT, MAX_VOICES);
 
-    void addImage(Bitmap i) { images_.add(i); }
+    viewport_ = new Viewport(Game.SCREEN_WIDTH, Game.SCREEN_HEIGHT);
 
-    void next() { ++ind_; if (ind_ >= images_.size()) ind_ = 0; }
+    text_paint = new Paint();
 
-    void reset() { ind_ = 0; }
+    text_paint.setColor(white_);
 
-    void draw(Canvas c, Point p) {
-      if (! images_.isEmpty())
-        c.drawBitmap(images_.get(ind_), p.x, p.y, null);
-    }
+    overlayPaint_ = new Paint();
 
-    private int            ind_;
-    private Vector<Bitmap> images_;
-  };
+    overlayPaint_.setColor(0xFF00FF00);
 
-  class Graphic {
-    Graphic(Point pos, int w, int h) {
-      pos_    = pos;
-      images_ = new ImageList();
-      w_      = w;
-      h_      = h;
-      dead_   = false;
-    }
+    layoutHud();
 
-    Point getPos() { return pos_; }
+    profiler_     = null;
+    overlayLines_ = new String [Profiler.COUNT];
+    overlayTime_  = 0;
 
-    void addImage(Bitmap i) { images_.addImage(i); }
+    holdId_  = -1;
+    holdDir_ = 0;
+    pressX_  = 0;
 
-    void nextImage() { images_.next(); }
+    redrawPixels_ = 0;
+    redrawTime_   = System.currentTimeMillis();
+    redrawRate_   = 0;
 
-    void draw(Canvas c) {
-      if (isDead()) return;
+    init(savedState);
 
-      Point pos = new Point(pos_.x - w_/2, pos_.y - h_/2);
+    lastTime_      = System.nanoTime();
+    lag_           = 0;
+    tickNanos_     = 1000000000L/tickRate;
+    interpolating_ = false;
 
-      images_.draw(c, pos);
-    }
+    timer_.schedule(new ViewTimerTask(this), 10, 1000/Math.max(RENDER_RATE, tickRate));
+  }
 
-    void reset() { dead_ = false; }
+  @Override
+  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+    viewport_ = new Viewport(w, h);
 
-    boolean isDead() { return dead_; }
+    scaleTitle();
 
-    void setDead(boolean dead) { dead_ = dead; }
+    scaleSprites();
 
-    Rect rect() { return new Rect(pos_.x - w_/2, pos_.y - h_/2, pos_.x + w_/2, pos_.y + h_/2); }
+    layoutHud();
 
-    protected Point     pos_;
-    protected ImageList images_;
-    protected int       w_;
-    protected int       h_;
-    protected boolean   dead_;
+    super.onSizeChanged(w, h, oldw, oldh);
   }
 
-  class ExplodeGraphic extends Graphic {
-    ExplodeGraphic(Point pos, int w, int h) {
-      super(pos, w, h);
-
-      exploding_     = 0;
-      explodeImages_ = new ImageList();
-    }
-
-    boolean isExploding() { return exploding_ > 0; }
+  void init(byte savedState[]) {
+    sprites_ = new Bitmap [Sprite.COUNT];
 
-    void setExploding() { exploding_ = 4; }
+    renderer_ = new SpriteRenderer(sprites_);
 
-    void reset() {
-      super.reset();
+    // shield sprites are rebuilt from the frame's shield masks
+    shieldVersions_ = new int [Sprite.NUM_SHIELDS];
 
-      exploding_ = 0;
-    }
-
-    void draw(Canvas c) {
-      if (isExploding())
-        explodeImages_.draw(c, new Point(pos_.x - 24, pos_.y - 24));
-      else
-        super.draw(c);
-    }
+    // the empty front frame shows the title screen until the game exists
+    frames_ = new FrameBuffer();
 
-    void update() {
-      if (isExploding()) {
-        --exploding_;
+    game_       = null;
+    inputLog_   = null;
+    savedState_ = savedState;
 
-        if (exploding_ == 0)
-          setDead(true);
+    loadAssets();
+  }
 
-        return;
-      }
-    }
+  // decode bitmaps, load the waves and start the sound loads on a
+  // background thread (title first) so the view appears at once, each group
+  // is installed on the UI thread when done (the game on the tick thread,
+  // once its waves are in) and play is allowed once everything has loaded
+  void loadAssets() {
+    ExecutorService loader = Executors.newSingleThreadExecutor();
 
-    protected int       exploding_;
-    protected ImageList explodeImages_;
-  };
+    loader.execute(new Runnable() {
+      @Override
+      public void run() {
+        getBitmap(R.drawable.title);
 
-  class Bullet extends Graphic {
-    Bullet(Point pos, int w, int h) {
-      super(pos, w, h);
-    }
+        post(new Runnable() {
+          @Override
+          public void run() {
+            titleLoaded_ = true;
 
-    void update() { }
-  };
+            scaleTitle();
 
-  class AlienBullet extends Bullet {
-    private final int DY = 20;
+            invalidate();
+          }
+        });
 
-    AlienBullet(Alien alien, Point pos) {
-      super(pos, 9, 26);
+        final Waves waves = loadWaves();
 
-      alien_ = alien;
+        try {
+          timer_.schedule(new TimerTask() {
+            @Override
+            public void run() {
+              startGame(waves);
+            }
+          }, 0);
+        }
+        catch (IllegalStateException e) {
+          return; // destroyed while loading, the timer is cancelled
+        }
 
-      addImage(getBitmap(R.drawable.bullet2a));
-    }
+        // tiny, so it is in before play can start
+        openHighScores();
 
-    void update() {
-      pos_.y += DY;
+        for (int id : SPRITE_RES)
+          getBitmap(id);
 
-      if (pos_.y >= SCREEN_HEIGHT)
-        setDead(true);
-    }
+        // samples load in the background, sounds played before then are skipped
+        for (int i = 0; i < Sound.COUNT; ++i)
+          sounds_.register(i, SOUND_RES[i], Sound.PRIORITY[i]);
 
-    private Alien alien_;
-  };
+        post(new Runnable() {
+          @Override
+          public void run() {
+            spritesLoaded_ = true;
 
-  class PlayerBullet extends Bullet {
-    private final int DY = 40;
+            scaleSprites();
+          }
+        });
+      }
+    });
 
-    PlayerBullet(Player player, Point pos) {
-      super(pos, 4, 26);
+    loader.shutdown();
+  }
 
-      player_ = player;
+  // (tick thread) continue the saved game or start a new one
+  private void startGame(Waves waves) {
+    Game game = restoreGame(savedState_, waves);
 
-      addImage(getBitmap(R.drawable.bullet1a));
-    }
+    game.setListener(this);
 
-    void update() {
-      pos_.y -= DY;
+    // record the session so a bug can be replayed (see saveInputLog), a
+    // log can only replay a game from its start
+    if (game.getTick() == 0) {
+      inputLog_ = new InputLog(game.getSeed(), waves.checksum(), game.getTickRate());
 
-      if (pos_.y < 10)
-        setDead(true);
+      game.setInputLog(inputLog_);
     }
 
-    private Player player_;
-  };
-
-  class AlienManager {
-    private final int NUM_BULLETS = 5;
-
-    AlienManager() {
-      dir_         = 1;
-      speed_       = 8;
-      w_           = 48;
-      numAlive_    = 0;
-      needsIncRow_ = false;
-      fast_        = false;
+    tickNanos_  = 1000000000L/game.getTickRate();
+    game_       = game;
+    savedState_ = null;
 
-      row_y_ = new int [5];
+    publishFrame();
+  }
 
-      for (int y = 0; y < 5; ++y)
-        row_y_[y] = y*60 + 110;
+  // loader thread
+  private void openHighScores() {
+    File file = new File(activity_.getFilesDir(), HIGH_SCORE_FILE);
 
-      bullets_ = new AlienBullet [NUM_BULLETS];
+    HighScores scores;
 
-      for (int i = 0; i < NUM_BULLETS; ++i)
-        bullets_[i] = null;
+    try {
+      scores = acquireHighScores(file);
     }
+    catch (IOException e) {
+      Log.w(TAG, "failed to open high scores " + file, e);
 
-    void reset() {
-      speed_ = 4 + 4*getLevel();
-
-      for (int y = 0; y < 5; ++y)
-        row_y_[y] = y*60 + 100;
-
-      for (int i = 0; i < NUM_BULLETS; ++i)
-        bullets_[i] = null;
-      
-      needsIncRow_ = false;
-      
-      fast_ = false;
+      return;
     }
 
-    int getWidth() { return w_; }
-
-    int getRowY(int row) { return row_y_[row]; }
+    if (! setHighScores(scores))
+      releaseHighScores();
+  }
 
-    int getDir() { return dir_; }
+  // install the store, false if the view was destroyed meanwhile
+  private synchronized boolean setHighScores(HighScores scores) {
+    if (destroyed_) return false;
 
-    int getSpeed() {
-      if (! fast_)
-        return speed_/4;
-      else
-    	return speed_/2;
-    }
+    highScores_ = scores;
 
-    void needsIncRow() { needsIncRow_ = true; }
+    return true;
+  }
 
-    void preUpdate() {
-      needsIncRow_ = false;
+  // (tick thread) take the store for release, none is installed after
+  private synchronized HighScores takeHighScores() {
+    destroyed_ = true;
 
-      numAlive_ = 0;
-    }
+    HighScores scores = highScores_;
 
-    void postUpdate() {
-      if (needsIncRow_) {
-        for (int y = 0; y < 5; ++y)
-          row_y_[y] += w_/2;
+    highScores_ = null;
 
-        dir_ = -dir_;
+    return scores;
+  }
 
-        ++speed_;
+  // the store is shared by the process's views, a recreated view (e.g. on
+  // rotation) opens it while the old one may still hold it, and it is
+  // closed when the last releases it
+  static HighScores acquireHighScores(File file) throws IOException {
+    synchronized (SpaceInvadersView.class) {
+      if (scoresUsers_ == 0)
+        sharedScores_ = HighScores.open(file, NUM_HIGH_SCORES);
 
-        needsIncRow_ = false;
-      }
+      ++scoresUsers_;
 
-      if (numAlive_ == 0)
-        nextLevel();
-      
-      fast_ = (numAlive_ < 4);
+      return sharedScores_;
     }
+  }
 
-    void update() {
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] == null) continue;
-
-        bullets_[i].update();
-
-        if (! bullets_[i].isDead())
-          checkPlayerHit(bullets_[i]);
-
-        if (! bullets_[i].isDead())
-          checkBaseHit(bullets_[i]);
+  static void releaseHighScores() {
+    synchronized (SpaceInvadersView.class) {
+      if (--scoresUsers_ > 0) return;
 
-        if (bullets_[i].isDead()) {
-          bullets_[i] = null;
-        }
+      try {
+        sharedScores_.close();
       }
-    }
-
-    void fire(Alien alien) {
-      Point pos = alien.getPos();
-
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] != null) continue;
-
-        bullets_[i] = new AlienBullet(alien, new Point(pos.x, pos.y + 24));
-
-        return;
+      catch (IOException e) {
+        Log.w(TAG, "failed to write high scores", e);
       }
-    }
 
-    void checkHit(PlayerBullet bullet) {
-      if (bullet.isDead()) return;
+      sharedScores_ = null;
+    }
+  }
 
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] == null) continue;
+  /** Stop the view (from onDestroy): once the tick thread has run what is
+   *  queued it releases the high score store and the sound pool and the
+   *  timer stops. */
+  void destroy() {
+    timer_.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        HighScores scores = takeHighScores();
 
-        if (bullet.rect().overlaps(bullets_[i].rect())) {
-          bullets_[i] = null;
+        if (scores != null)
+          releaseHighScores();
 
-          bullet.setDead(true);
+        sounds_.release();
 
-          return;
-        }
+        // from a task this is the last one run
+        timer_.cancel();
       }
-    }
-
-    void draw(Canvas c) {
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] == null) continue;
+    }, 0);
+  }
 
-        bullets_[i].draw(c);
-      }
-    }
+  /** True once every sprite and sound has loaded. */
+  boolean isReady() { return readyTime_ != 0; }
 
-    void incAlive() { ++numAlive_; }
+  /** Milliseconds from onCreate to the first frame drawn (0 if none yet). */
+  long getFirstFrameMillis() {
+    return (firstFrameTime_ != 0 ? (firstFrameTime_ - startTime_)/1000000 : 0);
+  }
 
-    private int         row_y_[];
-    private int         dir_;
-    private int         speed_;
-    private int         w_;
-    private int         numAlive_;
-    private boolean     needsIncRow_;
-    private boolean     fast_;
-    private AlienBullet bullets_[];
-  };
+  /** Milliseconds from onCreate to ready to play (0 if not yet). */
+  long getReadyMillis() {
+    return (readyTime_ != 0 ? (readyTime_ - startTime_)/1000000 : 0);
+  }
 
-  class Alien extends ExplodeGraphic {
-    Alien(AlienManager mgr, int col, int row, Point pos, int w, int h) {
-      super(pos, w, h);
+  // (tick thread) note when the game has started and the last asset load
+  // completes
+  void checkReady() {
+    if (readyTime_ != 0 || game_ == null || ! spritesLoaded_ || ! sounds_.isReady()) return;
 
-      mgr_        = mgr;
-      col_        = col;
-      row_        = row;
-      imageCount_ = 4;
-      dieSound_   = getSound(R.raw.invaderkilled);
+    readyTime_ = System.nanoTime();
 
-      explodeImages_.addImage(getBitmap(R.drawable.explode1));
-    }
+    Log.i(TAG, "ready to play " + getReadyMillis() + " ms after create");
 
-    int getScore() { return 0; }
+    postInvalidate();
+  }
 
-    void reset() {
-      super.reset();
+  void scaleTitle() {
+    if (! titleLoaded_) return;
 
-      imageCount_ = 0;
+    Bitmap title = getBitmap(R.drawable.title);
 
-      pos_.x = 34*(2*col_ + 1);
-    }
+    titleImage_ = getScaledBitmap(R.drawable.title, title.getWidth(), title.getHeight(),
+                                  viewport_);
+  }
 
-    void checkHit(PlayerBullet bullet) {
-      if (bullet.isDead()) return;
+  // (re)build every sprite at the current view scale, so drawing is a
+  // plain unscaled blit
+  void scaleSprites() {
+    if (! spritesLoaded_) return;
 
-      if (isDead() || isExploding()) return;
+    Viewport vp = viewport_;
 
-      if (bullet.rect().overlaps(rect())) {
-        setExploding();
+    for (int i = 0; i < SPRITE_RES.length; ++i)
+      sprites_[i] = getScaledBitmap(SPRITE_RES[i], Sprite.WIDTH[i], Sprite.HEIGHT[i], vp);
 
-        addScore(getScore());
+    renderer_.buildAtlas();
 
-        playSound(dieSound_);
+    for (int i = 0; i < Sprite.NUM_SHIELDS; ++i) {
+      sprites_[Sprite.SHIELD + i] = null;
 
-        bullet.setDead(true);
-      }
+      shieldVersions_[i] = -1;
     }
+  }
 
-    void update() {
-      super.update();
-
-      if (isDead()) return;
+  // HUD text positions and sizes for the current view scale
+  void layoutHud() {
+    Viewport vp = viewport_;
 
-      pos_.x += mgr_.getSpeed()*mgr_.getDir();
+    text_paint   .setTextSize(28*vp.scale());
+    overlayPaint_.setTextSize(16*vp.scale());
 
-      if (isExploding()) return;
+    int y  = vp.toViewY(24);
+    int x1 = vp.toViewX(10);
+    int x2 = vp.toViewX(Game.SCREEN_WIDTH/2);
+    int x3 = vp.toViewX(Game.SCREEN_WIDTH - 10);
 
-      int hs = mgr_.getWidth()/2;
+    levelText_    = new HudText("Level: ", HudText.RIGHT , x3, y, text_paint);
+    scoreText_    = new HudText("Score: ", HudText.CENTER, x2, y, text_paint);
+    livesText_    = new HudText("Lives: ", HudText.LEFT  , x1, y, text_paint);
+    gameOverText_ = new HudText("GAME OVER", HudText.CENTER,
+                                x2, vp.toViewY(Game.SCREEN_HEIGHT/2 + 14), text_paint);
+    loadingText_  = new HudText("Loading...", HudText.CENTER,
+                                x2, vp.toViewY(Game.SCREEN_HEIGHT - 100), text_paint);
 
-      if (pos_.x >= SCREEN_WIDTH - hs) {
-        //pos_.x = SCREEN_WIDTH - hs - 1;
+    highScoreText_ = new HudText("High score: ", HudText.CENTER, x2, y, text_paint);
+  }
 
-        mgr_.needsIncRow();
-      }
-      else if (pos_.x < hs) {
-        //pos_.x = hs;
+  // onDraw only ever reads the latest published frame, never the game
+  // itself, so the tick can keep mutating state while we draw
+  @Override
+  protected void onDraw(Canvas c) {
+    Profiler prof = profiler_;
 
-        mgr_.needsIncRow();
-      }
+    long t = (prof != null ? System.nanoTime() : 0);
 
-      --imageCount_;
+    if (firstFrameTime_ == 0) {
+      firstFrameTime_ = System.nanoTime();
 
-      if (imageCount_ <= 0) {
-        nextImage();
+      Log.i(TAG, "first frame " + getFirstFrameMillis() + " ms after create");
+    }
 
-        imageCount_ = 4;
-      }
+    Frame frame = frames_.front();
 
-      if (random() < 0.005)
-        mgr_.fire(this);
+    Viewport vp = viewport_;
 
-      mgr_.incAlive();
+    if (frame.isTitleScreen()) {
+      if (titleImage_ != null)
+        c.drawBitmap(titleImage_, vp.toViewX(0), vp.toViewY(150), null);
 
-      int y = mgr_.getRowY(row_);
+      HighScores scores = highScores_;
 
-      if (y >  850) checkBaseHit(this);
-      
-      if (y > 1050) gameOver();
-    }
+      if (scores != null && scores.size() > 0)
+        highScoreText_.draw(c, scores.best());
 
-    void draw(Canvas c) {
-      pos_.y = mgr_.getRowY(row_);
+      if (! isReady())
+        loadingText_.draw(c);
 
-      super.draw(c);
+      return;
     }
 
-    private AlienManager mgr_;
-    private int          col_;
-    private int          row_;
-    private int          imageCount_;
-    private int          dieSound_;
-  };
+    levelText_.draw(c, frame.level());
 
-  class Alien1 extends Alien {
-    Alien1(AlienManager mgr, int col, int row, Point pos) {
-      super(mgr, col, row, pos, 35, 35);
+    scoreText_.draw(c, frame.score());
 
-      addImage(getBitmap(R.drawable.invader1a));
-      addImage(getBitmap(R.drawable.invader1b));
-    }
+    // a restored game is published as soon as its waves are in, which can
+    // be before the sprites (and their atlas) are, so show the HUD only
+    if (! spritesLoaded_) {
+      livesText_.draw(c, frame.lives());
 
-    int getScore() { return 30; }
-  };
+      loadingText_.draw(c);
 
-  class Alien2 extends Alien {
-    Alien2(AlienManager mgr, int col, int row, Point pos) {
-      super(mgr, col, row, pos, 48, 35);
-
-      addImage(getBitmap(R.drawable.invader2a));
-      addImage(getBitmap(R.drawable.invader2b));
+      return;
     }
 
-    int getScore() { return 20; }
-  };
+    updateShields(frame, vp);
 
-  class Alien3 extends Alien {
-    Alien3(AlienManager mgr, int col, int row, Point pos) {
-      super(mgr, col, row, pos, 52, 35);
+    DrawList sprites = frame.sprites();
 
-      addImage(getBitmap(R.drawable.invader3a));
-      addImage(getBitmap(R.drawable.invader3b));
-    }
+    // fraction of the way through the tick that follows the frame
+    float alpha = (System.nanoTime() - frame.publishTime())/(float) tickNanos_;
 
-    int getScore() { return 10; }
-  };
+    alpha = Math.max(0, Math.min(alpha, 1));
 
-  class MysteryAlien extends ExplodeGraphic {
-    private final int DX = -4;
+    renderer_.setTarget(c, vp);
 
-    MysteryAlien() {
-      super(new Point(0, 60), 71, 31);
+    sprites.render(renderer_, alpha, MAX_LERP);
 
-      addImage(getBitmap(R.drawable.mystery1a));
+    livesText_.draw(c, frame.lives());
 
-      explodeImages_.addImage(getBitmap(R.drawable.explode1));
+    if (frame.isGameOver())
+      gameOverText_.draw(c);
 
-      dieSound_ = getSound(R.raw.invaderkilled);
+    if (prof != null) {
+      prof.mark(Profiler.DRAW, t);
 
-      dead_ = true;
+      drawOverlay(c, prof, vp);
     }
+  }
 
-    int getScore() {
-      double r = random();
-
-      if      (r < 0.50) return 100;
-      else if (r < 0.80) return 200;
-      else if (r < 0.95) return 300;
-      else               return 400;
-    }
+  // p50/p99/max of each phase, text refreshed twice a second
+  void drawOverlay(Canvas c, Profiler prof, Viewport vp) {
+    long now = System.currentTimeMillis();
 
-    void reset() {
-      super.reset();
+    if (now - overlayTime_ >= 500) {
+      for (int i = 0; i < Profiler.COUNT; ++i) {
+        Histogram h = prof.histogram(i);
 
-      dead_ = true;
+        overlayLines_[i] = String.format("%-13s %7.1f %7.1f %8.1f us", Profiler.NAMES[i],
+          h.percentile(50)/1e3, h.percentile(99)/1e3, h.max()/1e3);
+      }
 
-      pos_.x = SCREEN_WIDTH + w_/2;
+      overlayTime_ = now;
     }
 
-    void update() {
-      super.update();
-
-      if (isDead()) return;
+    for (int i = 0; i < Profiler.COUNT; ++i)
+      c.drawText(overlayLines_[i], vp.toViewX(10), vp.toViewY(HUD_HEIGHT + (i + 1)*OVERLAY_LINE),
+                 overlayPaint_);
+  }
 
-      pos_.x += DX;
+  /** Show (and start recording) per phase tick and draw timings. */
+  void setTimingOverlay(boolean enabled) {
+    if (enabled) {
+      if (profiler_ == null)
+        profiler_ = new Profiler();
 
-      if (pos_.x < 0)
-        setDead(true);
+      game_.setProfiler(profiler_);
     }
+    else {
+      game_.setProfiler(null);
 
-    void checkHit(PlayerBullet bullet) {
-      if (bullet.isDead()) return;
-
-      if (isDead() || isExploding()) return;
-
-      if (bullet.rect().overlaps(rect())) {
-        setExploding();
-
-        addScore(getScore());
-
-        playSound(dieSound_);
-
-        bullet.setDead(true);
-      }
+      profiler_ = null;
     }
+  }
 
-    private int dieSound_;
-  };
+  boolean isTimingOverlay() { return profiler_ != null; }
 
-  class Score {
-    Score(Point pos) {
-      pos_   = pos;
-      score_ = 0;
-    }
+  /** Write the current timing histograms to file (any thread). */
+  void dumpTimings(File file) throws IOException {
+    Profiler prof = profiler_;
 
-    void add(int i) { score_ += i; }
+    if (prof == null) return;
 
-    void draw(Canvas c) {
-      String str = String.format("Score: %d", score_);
+    PrintStream out = new PrintStream(new FileOutputStream(file));
 
-      drawCenteredText(c, pos_.x, pos_.y, str, text_paint);
+    try {
+      prof.dump(out);
     }
-
-    void reset() {
-      score_ = 0;
+    finally {
+      out.close();
     }
+  }
 
-    private Point pos_;
-    private int   score_;
-  };
-
-  class Player extends Graphic {
-    private final int DX          = 8;
-    private final int NUM_LIVES   = 3;
-    private final int NUM_BULLETS = 5;
-
-    Player(Point pos) {
-      super(pos, 57, 35);
-
-      lives_      = NUM_LIVES;
-      d_          = DX;
-      fire_block_ = 0;
-
-      addImage(getBitmap(R.drawable.player1a));
+  // regenerate shield bitmaps whose mask changed since they were built,
+  // sampling the mask straight at the view scale
+  void updateShields(Frame frame, Viewport vp) {
+    for (int i = 0; i < frame.numShields(); ++i) {
+      if (frame.shieldVersion(i) == shieldVersions_[i]) continue;
 
-      bullets_ = new PlayerBullet [NUM_BULLETS];
+      BitMask mask = frame.shield(i);
 
-      for (int i = 0; i < NUM_BULLETS; ++i)
-        bullets_[i] = null;
+      int mw = mask.width ();
+      int mh = mask.height();
+      int w  = vp.toViewSize(mw);
+      int h  = vp.toViewSize(mh);
 
-      fireSound_ = getSound(R.raw.shoot);
-      dieSound_  = getSound(R.raw.explosion);
-    }
+      if (sprites_[Sprite.SHIELD + i] == null)
+        sprites_[Sprite.SHIELD + i] = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
 
-    void reset() {
-      super.reset();
+      if (shieldPixels_ == null || shieldPixels_.length < w*h)
+        shieldPixels_ = new int [w*h];
 
-      pos_.x = SCREEN_WIDTH/2;
-      
-      lives_      = NUM_LIVES;
-      fire_block_ = 0;
+      for (int y = 0; y < h; ++y) {
+        int my = y*mh/h;
 
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        bullets_[i] = null;
+        for (int x = 0; x < w; ++x)
+          shieldPixels_[y*w + x] = (mask.get(x*mw/w, my) ? white_ : 0);
       }
-    }
 
-    void moveLeft () {
-      pos_.x -= d_;
+      sprites_[Sprite.SHIELD + i].setPixels(shieldPixels_, 0, w, 0, 0, w, h);
 
-      int hs = w_/2;
-
-      if (pos_.x <  hs) pos_.x = hs;
+      shieldVersions_[i] = frame.shieldVersion(i);
     }
+  }
 
-    void moveRight() {
-      pos_.x += d_;
+  // fixed timestep: run as many game ticks as the elapsed time covers and
+  // in between redraw the moving sprites at interpolated positions
+  void update() {
+    long now = System.nanoTime();
 
-      int hs = w_/2;
+    // nothing to tick until the waves have loaded (see startGame)
+    if (game_ == null) {
+      lastTime_ = now;
 
-      if (pos_.x >= SCREEN_WIDTH - hs) pos_.x = SCREEN_WIDTH - hs - 1;
+      return;
     }
 
-    void fire() {
-      if (fire_block_ > 0) return;
-
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] != null) continue;
+    lag_      = Math.min(lag_ + (now - lastTime_), MAX_LAG);
+    lastTime_ = now;
 
-        bullets_[i] = new PlayerBullet(this, new Point(pos_.x, pos_.y - h_/2));
+    checkReady();
 
-        fire_block_ = 8;
+    if (lag_ >= tickNanos_) {
+      while (lag_ >= tickNanos_) {
+        game_.update();
 
-        playSound(fireSound_);
-
-        return;
+        lag_ -= tickNanos_;
       }
-    }
-
-    void update() {
-      if (fire_block_ > 0) --fire_block_;
-
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] == null) continue;
-
-        bullets_[i].update();
-
-        if (! bullets_[i].isDead())
-          checkAlienHit(bullets_[i]);
 
-        if (! bullets_[i].isDead())
-          checkBaseHit(bullets_[i]);
-
-        if (bullets_[i].isDead()) {
-          bullets_[i] = null;
-        }
-      }
+      publishFrame();
     }
+    else if (interpolating_) {
+      postInvalidate(interpX1_, interpY1_, interpX2_, interpY2_);
 
-    void checkHit(AlienBullet bullet) {
-      if (bullet.isDead()) return;
-
-      if (isDead()) return;
-
-      if (bullet.rect().overlaps(rect())) {
-        --lives_;
-
-        playSound(dieSound_);
-
-        bullet.setDead(true);
-
-        if (lives_ <= 0)
-          gameOver();
-      }
+      countRedraw((interpX2_ - interpX1_)*(interpY2_ - interpY1_));
     }
+  }
 
-    void draw(Canvas c) {
-      super.draw(c);
-
-      for (int i = 0; i < NUM_BULLETS; ++i) {
-        if (bullets_[i] == null) continue;
-
-        bullets_[i].draw(c);
-      }
-
-      String str = String.format("Lives: %d", lives_);
-
-      drawLeftText(c, 10, 10, str, text_paint);
-    }
-
-    private int          lives_;
-    private int          d_;
-    private int          fire_block_;
-    private PlayerBullet bullets_[];
-    private int          fireSound_;
-    private int          dieSound_;
-  };
-
-  class Base extends Graphic {
-    class Cell {
-      ImageList images;
-      int       ind;
-      boolean   dead;
-      Rect      rect;
-
-      Cell(Rect r) {
-        images = new ImageList();
-        ind    = 0;
-        dead   = false;
-        rect   = r;
-      }
-
-      Rect getRect() { return rect; }
+  // snapshot the game into the back frame, hand it to onDraw and
+  // invalidate only what changed (tick thread)
+  void publishFrame() {
+    Frame frame = frames_.back();
 
-      void hit() { images.next(); ++ind; if (ind >= 4) dead = true; }
+    game_.snapshot(frame);
 
-      void reset() { images.reset(); ind = 0; dead = false; }
+    // the tick finished lag_ ago
+    frame.setPublishTime(System.nanoTime() - lag_);
 
-      void addImage(Bitmap image) { images.addImage(image); }
-    };
+    // read the dirty region before the frame is handed over
+    boolean full  = frame.isFullRedraw();
+    boolean dirty = frame.isDirty();
+    boolean hud   = frame.isHudChanged();
 
-    Base(Point pos) {
-      super(pos, 87, 57);
+    // overlay text changes all the time, redraw it with the HUD
+    int hudHeight = HUD_HEIGHT;
 
-      grid_ = new Cell [2][4];
+    if (profiler_ != null) {
+      hud        = true;
+      hudHeight += OVERLAY_HEIGHT;
+    }
 
-      int dx = 22;
-      int dy = 29;
+    int x1 = frame.dirtyX1(), y1 = frame.dirtyY1();
+    int x2 = frame.dirtyX2(), y2 = frame.dirtyY2();
 
-      int y1 = pos_.y + h_/2;
-      int y2 = y1;
+    frames_.publish();
 
-      for (int r = 0; r < 2; ++r) {
-        y1 = y2;
-        y2 = y1 + dy;
+    interpolating_ = false;
 
-        int x1 = pos_.x - w_/2;
-        int x2 = x1;
+    // dirty region is in game coordinates, clip to the screen then map
+    // it to the view
+    Viewport vp = viewport_;
 
-        for (int c = 0; c < 4; ++c) {
-          x1 = x2;
-          x2 = x1 + dx;
+    final int w = Game.SCREEN_WIDTH;
+    final int h = Game.SCREEN_HEIGHT;
 
-          grid_[r][c] = new Cell(new Rect(x1, y1, x2, y2));
-        }
-      }
-      
-      grid_[0][0].addImage(getBitmap(R.drawable.base1a_1_1));
-      grid_[0][1].addImage(getBitmap(R.drawable.base1a_2_1));
-      grid_[0][2].addImage(getBitmap(R.drawable.base1a_3_1));
-      grid_[0][3].addImage(getBitmap(R.drawable.base1a_4_1));
-      grid_[1][0].addImage(getBitmap(R.drawable.base1a_1_2));
-      grid_[1][1].addImage(getBitmap(R.drawable.base1a_2_2));
-      grid_[1][2].addImage(getBitmap(R.drawable.base1a_3_2));
-      grid_[1][3].addImage(getBitmap(R.drawable.base1a_4_2));
-
-      grid_[0][0].addImage(getBitmap(R.drawable.base1a_1_1));
-      grid_[0][1].addImage(getBitmap(R.drawable.base1b_2_1));
-      grid_[0][2].addImage(getBitmap(R.drawable.base1b_3_1));
-      grid_[0][3].addImage(getBitmap(R.drawable.base1b_4_1));
-      grid_[1][0].addImage(getBitmap(R.drawable.base1b_1_2));
-      grid_[1][1].addImage(getBitmap(R.drawable.base1b_2_2));
-      grid_[1][2].addImage(getBitmap(R.drawable.base1b_3_2));
-      grid_[1][3].addImage(getBitmap(R.drawable.base1b_4_2));
-
-      grid_[0][0].addImage(getBitmap(R.drawable.base1c_1_1));
-      grid_[0][1].addImage(getBitmap(R.drawable.base1c_2_1));
-      grid_[0][2].addImage(getBitmap(R.drawable.base1c_3_1));
-      grid_[0][3].addImage(getBitmap(R.drawable.base1c_4_1));
-      grid_[1][0].addImage(getBitmap(R.drawable.base1c_1_2));
-      grid_[1][1].addImage(getBitmap(R.drawable.base1c_2_2));
-      grid_[1][2].addImage(getBitmap(R.drawable.base1c_3_2));
-      grid_[1][3].addImage(getBitmap(R.drawable.base1c_4_2));
-
-      grid_[0][0].addImage(getBitmap(R.drawable.base1d_1_1));
-      grid_[0][1].addImage(getBitmap(R.drawable.base1d_2_1));
-      grid_[0][2].addImage(getBitmap(R.drawable.base1d_3_1));
-      grid_[0][3].addImage(getBitmap(R.drawable.base1d_4_1));
-      grid_[1][0].addImage(getBitmap(R.drawable.base1d_1_2));
-      grid_[1][1].addImage(getBitmap(R.drawable.base1d_2_2));
-      grid_[1][2].addImage(getBitmap(R.drawable.base1d_3_2));
-      grid_[1][3].addImage(getBitmap(R.drawable.base1d_4_2));
-    }
+    if      (full) {
+      postInvalidate();
 
-    void reset() {
-      for (int r = 0; r < 2; ++r)
-        for (int c = 0; c < 4; ++c)
-          grid_[r][c].reset();
+      countRedraw(vp.width()*vp.height());
     }
+    else {
+      // sprite area is redrawn each render frame until the next tick
+      if (dirty) {
+        interpX1_ = vp.toViewX(Math.max(x1, 0)); interpY1_ = vp.toViewY(Math.max(y1, 0));
+        interpX2_ = vp.toViewX(Math.min(x2, w)); interpY2_ = vp.toViewY(Math.min(y2, h));
 
-    void draw(Canvas canvas) {
-      int dx = 22;
-      int dy = 29;
-
-      int x = pos_.x - w_/2;
-      int y = pos_.y + h_/2;
-
-      for (int r = 0; r < 2; ++r) {
-        for (int c = 0; c < 4; ++c) {
-          Cell cell = grid_[r][c];
-
-          if (cell.dead) continue;
-
-          cell.images.draw(canvas, new Point(x + c*dx, y + r*dy));
-        }
+        interpolating_ = (interpX1_ < interpX2_ && interpY1_ < interpY2_);
       }
-    }
-
-    void checkHit(Bullet bullet) {
-      Rect brect = bullet.rect();
-
-      for (int r = 0; r < 2; ++r) {
-        for (int c = 0; c < 4; ++c) {
-          Cell cell = grid_[r][c];
 
-          if (brect.overlaps(cell.rect)) {
-            if (cell.dead) continue;
+      if (hud) {
+        x1 = (dirty ? Math.min(x1, 0) : 0);
+        y1 = (dirty ? Math.min(y1, 0) : 0);
+        x2 = (dirty ? Math.max(x2, w) : w);
+        y2 = (dirty ? Math.max(y2, hudHeight) : hudHeight);
 
-            cell.hit();
-
-            bullet.setDead(true);
-          }
-        }
+        dirty = true;
       }
-    }
-
-    void checkHit(Alien alien) {
-      for (int r = 0; r < 2; ++r) {
-        for (int c = 0; c < 4; ++c) {
-          Cell cell = grid_[r][c];
 
-          if (alien.rect().overlaps(cell.rect)) {
-            if (cell.dead) continue;
+      x1 = Math.max(x1, 0); y1 = Math.max(y1, 0);
+      x2 = Math.min(x2, w); y2 = Math.min(y2, h);
 
-            cell.dead = true;
-          }
-        }
+      // nothing (visible) changed, skip the frame
+      if (! dirty || x1 >= x2 || y1 >= y2) {
+        countRedraw(0);
+        return;
       }
-    }
-
-    private Cell grid_[][];
-  };
 
-  class Level {
-    Level() {
-      value_ = 1;
-    }
+      x1 = vp.toViewX(x1); y1 = vp.toViewY(y1);
+      x2 = vp.toViewX(x2); y2 = vp.toViewY(y2);
 
-    void draw(Canvas c) {
-      String str = String.format("Level: %d", value_);
+      postInvalidate(x1, y1, x2, y2);
 
-      drawRightText(c, SCREEN_WIDTH - 10, 10, str, text_paint);
+      countRedraw((x2 - x1)*(y2 - y1));
     }
-
-    int value() { return value_; }
-    
-    void next() { value_++; }
-    
-    void reset() { value_ = 1; }
-
-    private int value_;
-  };
-
-  SpaceInvadersView(SpaceInvadersActivity activity) {
-    super(activity);
-
-    activity_ = activity;
-
-    rand_ = new Random();
-
-    timer_ = new Timer();
-
-    soundPool_ = new SoundPool(4, AudioManager.STREAM_MUSIC, 0);
-
-    width_  = 100;
-    height_ = 100;
-
-    text_paint = new Paint();
-
-    text_paint.setColor(white_);
-    text_paint.setTextSize(28);
-
-    pressX_  = 0;
-    pressY_  = 0;
-    moveX_   = 0;
-    moveY_   = 0;
-    pressed_ = false;
-
-    init();
-
-    timer_.schedule(new ViewTimerTask(this), 10, 100);
   }
 
-  @Override
-  protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-    width_  = w;
-    height_ = h;
+  // accumulate pixels invalidated and update the per second rate
+  void countRedraw(long pixels) {
+    redrawPixels_ += pixels;
 
-    super.onSizeChanged(w, h, oldw, oldh);
-  }
-
-  void init() {
-    player_ = new Player(new Point(400, 1050));
-
-    level_ = new Level();
-
-    score_ = new Score(new Point(SCREEN_WIDTH/2, 10));
-
-    alienMgr_ = new AlienManager();
+    long t = System.currentTimeMillis();
 
-    aliens_ = new Vector<Alien>();
+    if (t - redrawTime_ >= 1000) {
+      redrawRate_ = 1000*redrawPixels_/(t - redrawTime_);
 
-    mysteryAlien_ = new MysteryAlien();
+      Log.v(TAG, "redraw " + redrawRate_ + " pixels/sec");
 
-    bases_ = new Vector<Base>();
-
-    titleScreen_ = true;
-    paused_      = false;
-    gameOver_    = false;
-
-    for (int i = 0; i < 4; ++i)
-      addBase(new Point(98*(2*i + 1), 940));
-
-    for (int y = 0; y < 5; ++y) {
-      for (int x = 0; x < 11; ++x) {
-        addAlien(x, y, 34*(2*x + 1));
-      }
+      redrawPixels_ = 0;
+      redrawTime_   = t;
     }
-
-    titleImage_ = getBitmap(R.drawable.title);
   }
 
-  @Override
-  protected void onDraw(Canvas c) {
-    if (titleScreen_) {
-      c.drawBitmap(titleImage_, 0, 150, null);
-      return;
-    }
-      
-    level_.draw(c);
-
-    score_.draw(c);
-
-    player_.draw(c);
-
-    for (Alien a : aliens_) a.draw(c);
-    for (Base  b : bases_ ) b.draw(c);
-
-    alienMgr_.draw(c);
-
-    mysteryAlien_.draw(c);
+  /** Pixels invalidated per second (over the last full second). */
+  public long getRedrawPixelsPerSecond() { return redrawRate_; }
 
-    if (gameOver_)
-      drawCenteredText(c, SCREEN_WIDTH/2, SCREEN_HEIGHT/2, "GAME OVER", text_paint);
-  }
-
-  void update() {
-    if (titleScreen_) return;
-
-    if (paused_ || gameOver_) return;
-
-    player_.update();
-
-    alienMgr_.preUpdate();
+  @Override
+  public boolean onTouchEvent(MotionEvent event) {
+    int action = event.getActionMasked();
 
-    for (Alien a : aliens_) a.update();
+    // last finger up, stop moving whatever state the game is in
+    if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+      holdId_ = -1;
 
-    alienMgr_.postUpdate();
+      setHold(0);
 
-    alienMgr_.update();
+      return true;
+    }
 
-    mysteryAlien_.update();
+    // only the tick thread touches game state, so decide from the frame
+    // last drawn and queue commands for the next tick
+    Frame frame = frames_.front();
 
-    if (mysteryAlien_.isDead()) {
-      if (random() < 0.002) {
-        mysteryAlien_.reset();
+    if (frame.isTitleScreen()) {
+      // play once everything has loaded
+      if (action == MotionEvent.ACTION_DOWN && isReady())
+        game_.start();
 
-        mysteryAlien_.setDead(false);
-      }
+      return true;
     }
-  }
-
-  @Override
-  public boolean onTouchEvent(MotionEvent event) {
-    if (titleScreen_) {
-      titleScreen_ = false;
 
-      restart();
+    if (frame.isPaused()) {
+      // a restored game waits for its sprites too
+      if (action == MotionEvent.ACTION_DOWN && isReady())
+        game_.pause();
 
       return true;
     }
 
-    if (paused_) {
-      paused_ = false;
-      
+    // third finger down toggles the timing overlay
+    if (action == MotionEvent.ACTION_POINTER_DOWN && event.getPointerCount() == 3) {
+      setTimingOverlay(! isTimingOverlay());
+
       return true;
     }
-    
-    final int midX = width_ /2;
-    final int midY = height_/2;
 
-    int action = (event.getAction() & MotionEvent.ACTION_MASK);
+    final int midX = Game.SCREEN_WIDTH /2;
+    final int midY = Game.SCREEN_HEIGHT/2;
 
-    boolean left  = false; int leftId  = 0; int leftX  = 0; int leftY  = 0;
-    boolean right = false; int rightId = 0; int rightX = 0; int rightY = 0;
+    Viewport vp = viewport_;
 
-    for (int i = 0; i < event.getPointerCount(); i++) {
-      int mouseX = (int) event.getX(i);
-      int mouseY = (int) event.getY(i);
+    if      (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
+      int i = event.getActionIndex();
 
-      if      (mouseX <= midX) {
-        left  = true; leftId  = i; leftX  = mouseX; leftY  = mouseY;
-      }
-      else if (mouseX >  midX && mouseY >= midY) {
-        right = true; rightId = i; rightX = mouseX; rightY = mouseY;
-      }
-    }
+      // touches are handled in game coordinates
+      int x = vp.toGameX(event.getX(i));
+      int y = vp.toGameY(event.getY(i));
 
-    if (left) {
-      if      (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
-    	pressed_ = true;
+      if      (x <= midX) {
+        holdId_ = event.getPointerId(i);
+        pressX_ = x;
 
-        pressX_ = leftX;
-        pressY_ = leftY;
-      }
-      else if (action == MotionEvent.ACTION_MOVE) {
-    	moveX_ = leftX;
-        moveY_ = leftY;
-    	
-        int dx = moveX_ - pressX_;
-
-        if      (dx <= -2)
-          moveShipLeft();
-        else if (dx >=  2)
-          moveShipRight();
-      }
-      else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) {
-    	 pressed_ = false;
+        setHold(0);
       }
+      else if (y >= midY)
+        game_.shipFire();
     }
-    if (right) {
-      if      (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
-        shipFire();
-      }
-      else if (action == MotionEvent.ACTION_MOVE) {
-      }
-      else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) {
+    else if (action == MotionEvent.ACTION_POINTER_UP) {
+      if (event.getPointerId(event.getActionIndex()) == holdId_) {
+        holdId_ = -1;
+
+        setHold(0);
       }
     }
+    else if (action == MotionEvent.ACTION_MOVE && holdId_ >= 0) {
+      int i = event.findPointerIndex(holdId_);
 
-    return true;
-  }
+      if (i >= 0) {
+        int dx = vp.toGameX(event.getX(i)) - pressX_;
 
-  public boolean onBackPressed() {
-    if       (titleScreen_) {
-      return false;
-    }
-    else if (gameOver_) {
-      titleScreen_ = true;
-    }
-    else {
-      if (! paused_)
-        pause();
-      else
-    	titleScreen_ = true;
+        if      (dx <= -HOLD_SLOP) setHold(-1);
+        else if (dx >=  HOLD_SLOP) setHold( 1);
+        else                       setHold( 0);
+      }
     }
-    
+
     return true;
   }
 
-  void addAlien(int x_ind, int y_ind, int x) {
-    int y = alienMgr_.getRowY(y_ind);
-
-    Point pos = new Point(x, y);
-
-    if      (y_ind == 0              ) aliens_.add(new Alien1(alienMgr_, x_ind, y_ind, pos));
-    else if (y_ind == 1 || y_ind == 2) aliens_.add(new Alien2(alienMgr_, x_ind, y_ind, pos));
-    else if (y_ind == 3 || y_ind == 4) aliens_.add(new Alien3(alienMgr_, x_ind, y_ind, pos));
+  // tell the game when the held direction changes (retried on the next
+  // event if the queue was full)
+  private void setHold(int dir) {
+    if (dir != holdDir_ && game_.hold(dir))
+      holdDir_ = dir;
   }
 
-  void addBase(Point pos) {
-    bases_.add(new Base(pos));
-  }
+  public boolean onBackPressed() {
+    if (frames_.front().isTitleScreen()) return false;
 
-  void moveShipLeft() {
-    if (titleScreen_ || paused_ || gameOver_) return;
+    game_.input(InputLog.BACK, 0);
 
-    player_.moveLeft();
+    return true;
   }
 
-  void moveShipRight() {
-    if (titleScreen_ || paused_ || gameOver_) return;
+  // continue the saved game, paused if it was being played so it waits
+  // for a touch, or a new game on the title screen
+  private Game restoreGame(byte savedState[], Waves waves) {
+    if (savedState != null) {
+      try {
+        Game game = Game.restoreState(new ByteArrayInputStream(savedState), waves);
 
-    player_.moveRight();
-  }
+        if (! game.isTitleScreen() && ! game.isPaused() && ! game.isGameOver())
+          game.pause();
 
-  void shipFire() {
-    if (titleScreen_ || paused_ || gameOver_) return;
+        return game;
+      }
+      catch (IOException e) {
+        Log.w(TAG, "failed to restore saved game", e);
+      }
+    }
 
-    player_.fire();
+    return new Game(System.currentTimeMillis(), waves, tickRate_);
   }
 
-  void checkAlienHit(PlayerBullet bullet) {
-    for (Alien a : aliens_) a.checkHit(bullet);
+  // (loader thread) wave tables from the cache, or compiled from waves.txt
+  // if it has changed, falling back to the built in waves if it can't be read
+  private Waves loadWaves() {
+    long t = System.nanoTime();
 
-    alienMgr_.checkHit(bullet);
+    try {
+      InputStream is = activity_.getResources().openRawResource(R.raw.waves);
 
-    mysteryAlien_.checkHit(bullet);
-  }
+      ByteArrayOutputStream source = new ByteArrayOutputStream();
 
-  void checkPlayerHit(AlienBullet bullet) {
-    player_.checkHit(bullet);
-  }
+      try {
+        byte buf[] = new byte [4096];
 
-  void checkBaseHit(Bullet bullet) {
-    for (Base b : bases_) b.checkHit(bullet);
-  }
+        for (int n; (n = is.read(buf)) > 0; )
+          source.write(buf, 0, n);
+      }
+      finally {
+        is.close();
+      }
 
-  void checkBaseHit(Alien alien) {
-    for (Base b : bases_) b.checkHit(alien);
-  }
+      Waves waves = Waves.load(source.toByteArray(),
+                               new File(activity_.getCacheDir(), WAVES_CACHE_FILE));
 
-  void addScore(int score) {
-    score_.add(score);
-  }
+      Log.i(TAG, "loaded " + waves.count() + " waves in " + (System.nanoTime() - t)/1000 + " us");
 
-  void pause() {
-    paused_ = ! paused_;
-  }
+      return waves;
+    }
+    catch (IOException e) {
+      Log.w(TAG, "failed to load waves, using the built in ones", e);
 
-  void gameOver() {
-    gameOver_ = true;
+      return Waves.DEFAULT;
+    }
   }
 
-  int getLevel() {
-	 return level_.value();
-  }
-  
-  void nextLevel() {
-    paused_   = false;
-    gameOver_ = false;
+  /** Game state for onSaveInstanceState (see Game.saveState), or null if
+   *  the tick thread didn't get to it within SAVE_TIMEOUT. The state is
+   *  saved on the tick thread between ticks, the caller waits for it. */
+  byte[] saveState() {
+    final FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        // still loading, keep the state we were started with
+        if (game_ == null) return savedState_;
 
-    level_.next();
-    
-    for (Alien a : aliens_) a.reset();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
 
-    alienMgr_.reset();
+        game_.saveState(os);
 
-    mysteryAlien_.reset();
-  }
+        return os.toByteArray();
+      }
+    });
 
-  void restart() {
-    if (! paused_ && ! gameOver_) return;
+    timer_.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        task.run();
+      }
+    }, 0);
 
-    paused_   = false;
-    gameOver_ = false;
+    try {
+      return task.get(SAVE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    catch (Exception e) {
+      Log.w(TAG, "failed to save game state", e);
 
-    level_.reset();
+      return null;
+    }
+  }
 
-    score_.reset();
+  /** Write the session's input log to file. Runs on the tick thread
+   *  between ticks, so the log isn't written while it is appended to. */
+  void saveInputLog(final File file) {
+    timer_.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        if (inputLog_ == null) return;
 
-    player_.reset();
+        if (inputLog_.isFull())
+          Log.w(TAG, "input log full, saving the first " + inputLog_.numTicks() + " ticks");
 
-    for (Alien a : aliens_) a.reset();
-    for (Base  b : bases_ ) b.reset();
+        try {
+          OutputStream os = new FileOutputStream(file);
 
-    alienMgr_.reset();
+          try {
+            inputLog_.write(os);
+          }
+          finally {
+            os.close();
+          }
+        }
+        catch (IOException e) {
+          Log.w(TAG, "failed to save input log " + file, e);
+        }
+      }
+    }, 0);
   }
 
   //--------------
@@ -1167,80 +944,95 @@ public class SpaceInvadersView extends View {
   Bitmap getBitmap(int id) {
     Resources res = activity_.getResources();
 
-    return BitmapFactory.decodeResource(res, id);
+    return SpriteCache.get(res, id);
   }
 
-  int getSound(int id) {
-   return soundPool_.load(activity_, id, 1);
+  // bitmap scaled from its w x h game size to the viewport
+  Bitmap getScaledBitmap(int id, int w, int h, Viewport vp) {
+    return SpriteCache.getScaled(activity_.getResources(), id,
+                                 vp.toViewSize(w), vp.toViewSize(h));
   }
 
-  void playSound(int id) {
-    soundPool_.play(id, 1, 1, 0, 0, 1);
+  public void playSound(int sound) {
+    sounds_.play(sound);
   }
 
-  void drawLeftText(Canvas c, int x, int y, String text, Paint paint) {
-    //android.Graphics.Rect bounds = new android.Graphics.Rect();
-
-    //paint.getTextBounds(text, 0, text.length(), bounds);
-
-    c.drawText(text, x, y + 14, paint);
-  }
-
-  void drawCenteredText(Canvas c, int x, int y, String text, Paint paint) {
-    android.graphics.Rect bounds = new android.graphics.Rect();
-
-    paint.getTextBounds(text, 0, text.length(), bounds);
+  // tick thread, the store writes in the background
+  public void gameEnded(int score, int level) {
+    HighScores scores = highScores_;
 
-    c.drawText(text, x - bounds.width()/2, y + 14, paint);
-  }
-
-  void drawRightText(Canvas c, int x, int y, String text, Paint paint) {
-    android.graphics.Rect bounds = new android.graphics.Rect();
-
-    paint.getTextBounds(text, 0, text.length(), bounds);
-
-    c.drawText(text, x - bounds.width(), y + 14, paint);
-  }
-
-  double random() {
-    return rand_.nextDouble();
+    if (scores != null && score > 0)
+      scores.add(score, level, System.currentTimeMillis());
   }
 
   //--------------
 
   private int white_  = 0xFFFFFFFF;
 
-  int SCREEN_WIDTH  = 800;
-  int SCREEN_HEIGHT = 1100;
-
   SpaceInvadersActivity activity_;
 
-  private Random rand_;
-
   private Timer timer_;
 
-  private SoundPool soundPool_;
+  private SoundRegistry sounds_;
 
-  private int width_, height_;
+  private volatile Viewport viewport_;
 
   Paint text_paint;
 
-  private int      pressX_;
-  private int      pressY_;
-  private int      moveX_;
-  private int      moveY_;
-  private boolean  pressed_;
-
-  private Player        player_;
-  private Level         level_;
-  private Score         score_;
-  private AlienManager  alienMgr_;
-  private Vector<Alien> aliens_;
-  private MysteryAlien  mysteryAlien_;
-  private Vector<Base>  bases_;
-  private boolean       titleScreen_;
-  private boolean       paused_;
-  private boolean       gameOver_;
+  private HudText levelText_;
+  private HudText scoreText_;
+  private HudText livesText_;
+  private HudText gameOverText_;
+  private HudText loadingText_;
+  private HudText highScoreText_;
+
+  private volatile HighScores highScores_;
+  private boolean             destroyed_;
+
+  private static HighScores sharedScores_;
+  private static int        scoresUsers_;
+
+  private volatile Profiler profiler_;
+  private Paint             overlayPaint_;
+  private String            overlayLines_[];
+  private long              overlayTime_;
+
+  // move finger (pointer id, -1 if none), direction sent to the game
+  // and where the finger went down (game x)
+  private int holdId_;
+  private int holdDir_;
+  private int pressX_;
+
+  // game_ is created on the tick thread once the waves have loaded (null
+  // until then), savedState_ is the state to continue until it is
+  private volatile Game  game_;
+  private byte           savedState_[];
+  private InputLog       inputLog_;
+  private FrameBuffer    frames_;
+  private Bitmap         sprites_[];
+  private SpriteRenderer renderer_;
+  private int            shieldVersions_[];
+  private int            shieldPixels_[];
 
   private Bitmap titleImage_;
+
+  // asset loading and cold start timing (System.nanoTime)
+  private volatile boolean titleLoaded_;
+  private volatile boolean spritesLoaded_;
+  private long             startTime_;
+  private long             firstFrameTime_;
+  private volatile long    readyTime_;
+
+  // fixed timestep state (tick thread), tickNanos_ is the game's tick
+  // length (also read by onDraw)
+  private int           tickRate_;
+  private long          lastTime_;
+  private long          lag_;
+  private volatile long tickNanos_;
+  private boolean       interpolating_;
+  private int           interpX1_, interpY1_, interpX2_, interpY2_;
+
+  private long          redrawPixels_;
+  private long          redrawTime_;
+  private volatile long redrawRate_;
 }
@@ -0,0 +1,107 @@
+package colinw.org.space_invaders;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.SparseArray;
+
+/** Process wide cache of decoded sprites keyed by drawable resource id.
+ *  Each drawable is decoded once and the same immutable bitmap is handed
+ *  to everything that draws it. Copies scaled to a view size are cached
+ *  the same way, least recently used first out (and recycled) once there
+ *  are more than MAX_SCALED, which holds the sprites at two view sizes so
+ *  rotating back and forth doesn't rebuild them. */
+class SpriteCache {
+  static final int MAX_SCALED = 32;
+
+  private SpriteCache() { }
+
+  static synchronized Bitmap get(Resources res, int id) {
+    Bitmap bitmap = bitmaps_.get(id);
+
+    if (bitmap != null) {
+      ++hits_;
+
+      return bitmap;
+    }
+
+    ++misses_;
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+
+    options.inMutable = false;
+    options.inScaled  = false; // game pixels, the view does the scaling
+
+    bitmap = BitmapFactory.decodeResource(res, id, options);
+
+    bitmaps_.put(id, bitmap);
+
+    return bitmap;
+  }
+
+  /** Drawable id scaled (filtered) to w x h. */
+  static synchronized Bitmap getScaled(Resources res, int id, int w, int h) {
+    long key = ((long) id << 32) | ((long) w << 16) | h;
+
+    Bitmap bitmap = scaled_.get(key);
+
+    if (bitmap != null) {
+      ++hits_;
+
+      return bitmap;
+    }
+
+    Bitmap source = get(res, id);
+
+    if (source.getWidth() == w && source.getHeight() == h)
+      bitmap = source;
+    else
+      bitmap = Bitmap.createScaledBitmap(source, w, h, true);
+
+    scaled_.put(key, bitmap);
+
+    evict();
+
+    return bitmap;
+  }
+
+  // drop the least recently used scaled copies over MAX_SCALED, the
+  // sources stay in bitmaps_
+  private static void evict() {
+    Iterator<Map.Entry<Long, Bitmap>> it = scaled_.entrySet().iterator();
+
+    while (scaled_.size() > MAX_SCALED) {
+      Bitmap bitmap = it.next().getValue();
+
+      it.remove();
+
+      if (bitmaps_.indexOfValue(bitmap) < 0)
+        bitmap.recycle();
+    }
+  }
+
+  static synchronized int size() { return bitmaps_.size(); }
+
+  static synchronized int hits() { return hits_; }
+
+  static synchronized int misses() { return misses_; }
+
+  static synchronized void clear() {
+    bitmaps_.clear();
+    scaled_ .clear();
+
+    hits_   = 0;
+    misses_ = 0;
+  }
+
+  // scaled_ is in access order, least recently used first
+  private static SparseArray<Bitmap>         bitmaps_ = new SparseArray<Bitmap>();
+  private static LinkedHashMap<Long, Bitmap> scaled_  =
+    new LinkedHashMap<Long, Bitmap>(MAX_SCALED, 0.75f, true);
+  private static int                         hits_    = 0;
+  private static int                         misses_  = 0;
+}
@@ -0,0 +1,99 @@
+package colinw.org.space_invaders;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import colinw.org.space_invaders.core.Renderer;
+import colinw.org.space_invaders.core.Sprite;
+
+/** Canvas renderer which draws every static sprite out of one atlas
+ *  bitmap, so consecutive draws share a texture and the hardware renderer
+ *  can merge them, instead of switching bitmap on almost every sprite.
+ *  Each sprite is still its own drawBitmap call, the atlas only shares
+ *  the source bitmap.
+ *
+ *  Shields (rebuilt as they are damaged) stay separate bitmaps. Sprites
+ *  are drawn in the order they arrive so the layers stay as the game
+ *  lists them. */
+class SpriteRenderer implements Renderer {
+  // transparent gap between atlas images so filtering doesn't bleed
+  private static final int PAD = 2;
+
+  /** sprites is indexed by Sprite id and shared with the view (which
+   *  rebuilds the shield entries), call buildAtlas after the static
+   *  entries change. */
+  SpriteRenderer(Bitmap sprites[]) {
+    sprites_ = sprites;
+    atlas_   = null;
+    src_     = new Rect [Sprite.SHIELD];
+    dst_     = new Rect();
+
+    for (int i = 0; i < Sprite.SHIELD; ++i)
+      src_[i] = new Rect();
+  }
+
+  /** Pack the static sprites side by side into the atlas. */
+  void buildAtlas() {
+    int w = 0, h = 0;
+
+    for (int i = 0; i < Sprite.SHIELD; ++i) {
+      w += sprites_[i].getWidth() + PAD;
+      h  = Math.max(h, sprites_[i].getHeight());
+    }
+
+    if (atlas_ != null)
+      atlas_.recycle();
+
+    atlas_ = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+
+    Canvas c = new Canvas(atlas_);
+
+    int x = 0;
+
+    for (int i = 0; i < Sprite.SHIELD; ++i) {
+      Bitmap b = sprites_[i];
+
+      c.drawBitmap(b, x, 0, null);
+
+      src_[i].set(x, 0, x + b.getWidth(), b.getHeight());
+
+      x += b.getWidth() + PAD;
+    }
+  }
+
+  /** Canvas and mapping for the next frame. */
+  void setTarget(Canvas c, Viewport vp) {
+    canvas_   = c;
+    viewport_ = vp;
+  }
+
+  public void begin() {
+  }
+
+  public void sprite(int sprite, int x, int y) {
+    int vx = viewport_.toViewX(x);
+    int vy = viewport_.toViewY(y);
+
+    if (sprite >= Sprite.SHIELD) {
+      canvas_.drawBitmap(sprites_[sprite], vx, vy, null);
+      return;
+    }
+
+    Rect src = src_[sprite];
+
+    dst_.set(vx, vy, vx + src.width(), vy + src.height());
+
+    canvas_.drawBitmap(atlas_, src, dst_, null);
+  }
+
+  public void end() {
+  }
+
+  private Bitmap   sprites_[];
+  private Bitmap   atlas_;
+  private Rect     src_[];
+  private Rect     dst_;
+  private Canvas   canvas_;
+  private Viewport viewport_;
+}
@@ -0,0 +1,38 @@
+package colinw.org.space_invaders;
+
+import colinw.org.space_invaders.core.Game;
+
+/** Maps the game's logical Game.SCREEN_WIDTH x Game.SCREEN_HEIGHT space
+ *  onto a view of the given size, uniformly scaled to fit and centred.
+ *  Immutable, so the tick thread can keep using the one it read while the
+ *  UI thread installs a new one on a size change. */
+class Viewport {
+  Viewport(int width, int height) {
+    width_  = width;
+    height_ = height;
+    scale_  = Math.min(width /(float) Game.SCREEN_WIDTH,
+                       height/(float) Game.SCREEN_HEIGHT);
+    x0_     = Math.round((width  - Game.SCREEN_WIDTH *scale_)/2);
+    y0_     = Math.round((height - Game.SCREEN_HEIGHT*scale_)/2);
+  }
+
+  int width () { return width_ ; }
+  int height() { return height_; }
+
+  float scale() { return scale_; }
+
+  /** Logical to view coordinates. */
+  int toViewX(int x) { return x0_ + Math.round(x*scale_); }
+  int toViewY(int y) { return y0_ + Math.round(y*scale_); }
+
+  /** Logical to view size (at least one pixel). */
+  int toViewSize(int n) { return Math.max(1, Math.round(n*scale_)); }
+
+  /** View (touch) to logical coordinates. */
+  int toGameX(float x) { return Math.round((x - x0_)/scale_); }
+  int toGameY(float y) { return Math.round((y - y0_)/scale_); }
+
+  private int   width_, height_;
+  private float scale_;
+  private int   x0_, y0_;
+}
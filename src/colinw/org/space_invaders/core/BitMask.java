@@ -0,0 +1,163 @@
+package colinw.org.space_invaders.core;
+
+import java.util.Arrays;
+
+/** Fixed size 1 bit per pixel mask packed into 64 bit words (bit x%64 of
+ *  word x/64 of each row, least significant bit leftmost). Tests and edits
+ *  work a word at a time using shifts and range masks. */
+public class BitMask {
+  public BitMask(int width, int height) {
+    width_       = width;
+    height_      = height;
+    wordsPerRow_ = (width + 63) >> 6;
+    bits_        = new long [wordsPerRow_*height];
+  }
+
+  /** Mask from rows of '#' (set) and '.' (clear) characters. */
+  public static BitMask parse(String rows[]) {
+    BitMask mask = new BitMask(rows[0].length(), rows.length);
+
+    for (int y = 0; y < rows.length; ++y)
+      for (int x = 0; x < rows[y].length(); ++x)
+        if (rows[y].charAt(x) == '#')
+          mask.set(x, y, x, y);
+
+    return mask;
+  }
+
+  public int width () { return width_ ; }
+  public int height() { return height_; }
+
+  public int wordsPerRow() { return wordsPerRow_; }
+
+  public long word(int y, int w) { return bits_[y*wordsPerRow_ + w]; }
+
+  public void setWord(int y, int w, long bits) { bits_[y*wordsPerRow_ + w] = bits; }
+
+  public boolean get(int x, int y) {
+    return (bits_[y*wordsPerRow_ + (x >> 6)] & (1L << (x & 63))) != 0;
+  }
+
+  public void copyFrom(BitMask mask) {
+    System.arraycopy(mask.bits_, 0, bits_, 0, bits_.length);
+  }
+
+  public void clearAll() {
+    Arrays.fill(bits_, 0);
+  }
+
+  /** Set all pixels in the (inclusive) rectangle. */
+  public void set(int x1, int y1, int x2, int y2) {
+    x1 = Math.max(x1, 0); x2 = Math.min(x2, width_  - 1);
+    y1 = Math.max(y1, 0); y2 = Math.min(y2, height_ - 1);
+
+    if (x1 > x2) return;
+
+    for (int y = y1; y <= y2; ++y)
+      for (int w = x1 >> 6; w <= x2 >> 6; ++w)
+        bits_[y*wordsPerRow_ + w] |= rangeMask(w, x1, x2);
+  }
+
+  /** Clear all pixels in the (inclusive) rectangle, returns true if any
+   *  were set. */
+  public boolean clear(int x1, int y1, int x2, int y2) {
+    x1 = Math.max(x1, 0); x2 = Math.min(x2, width_  - 1);
+    y1 = Math.max(y1, 0); y2 = Math.min(y2, height_ - 1);
+
+    if (x1 > x2) return false;
+
+    long changed = 0;
+
+    for (int y = y1; y <= y2; ++y) {
+      for (int w = x1 >> 6; w <= x2 >> 6; ++w) {
+        int  i = y*wordsPerRow_ + w;
+        long m = rangeMask(w, x1, x2);
+
+        changed  |= bits_[i] & m;
+        bits_[i] &= ~m;
+      }
+    }
+
+    return changed != 0;
+  }
+
+  /** Returns true if any pixel in the (inclusive) rectangle is set. */
+  public boolean any(int x1, int y1, int x2, int y2) {
+    return firstRow(x1, y1, x2, y2, true) >= 0;
+  }
+
+  /** First row of the (inclusive) rectangle, scanning down from y1 if
+   *  fromTop else up from y2, which has a set pixel in x1..x2, or -1. */
+  public int firstRow(int x1, int y1, int x2, int y2, boolean fromTop) {
+    x1 = Math.max(x1, 0); x2 = Math.min(x2, width_  - 1);
+    y1 = Math.max(y1, 0); y2 = Math.min(y2, height_ - 1);
+
+    if (x1 > x2 || y1 > y2) return -1;
+
+    int w1 = x1 >> 6;
+    int w2 = x2 >> 6;
+
+    for (int n = 0; n <= y2 - y1; ++n) {
+      int y = (fromTop ? y1 + n : y2 - n);
+
+      for (int w = w1; w <= w2; ++w)
+        if ((bits_[y*wordsPerRow_ + w] & rangeMask(w, x1, x2)) != 0)
+          return y;
+    }
+
+    return -1;
+  }
+
+  /** Clear the pixels set in shape (at most 64 pixels wide) placed with its
+   *  top left at x, y. Returns true if any pixels were cleared. */
+  public boolean carve(BitMask shape, int x, int y) {
+    long changed = 0;
+
+    for (int j = 0; j < shape.height_; ++j) {
+      int row = y + j;
+
+      if (row < 0 || row >= height_) continue;
+
+      long b  = shape.bits_[j*shape.wordsPerRow_];
+      int  x1 = x;
+
+      if (x1 < 0) {
+        if (x1 <= -64) continue;
+
+        b >>>= -x1;
+        x1   = 0;
+      }
+
+      int w = x1 >> 6;
+      int s = x1 & 63;
+      int i = row*wordsPerRow_ + w;
+
+      if (w < wordsPerRow_) {
+        changed  |= bits_[i] & (b << s);
+        bits_[i] &= ~(b << s);
+      }
+
+      if (s != 0 && w + 1 < wordsPerRow_) {
+        changed      |= bits_[i + 1] & (b >>> (64 - s));
+        bits_[i + 1] &= ~(b >>> (64 - s));
+      }
+    }
+
+    return changed != 0;
+  }
+
+  // bits of word w covering columns x1..x2
+  private static long rangeMask(int w, int x1, int x2) {
+    int lo = Math.max(x1, w << 6) - (w << 6);
+    int hi = Math.min(x2, (w << 6) + 63) - (w << 6);
+
+    if (lo > hi) return 0;
+
+    return (-1L >>> (63 - (hi - lo))) << lo;
+  }
+
+  private int  width_;
+  private int  height_;
+  private int  wordsPerRow_;
+  private long bits_[];
+}
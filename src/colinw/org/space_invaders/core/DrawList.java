@@ -0,0 +1,116 @@
+package colinw.org.space_invaders.core;
+
+import java.util.Arrays;
+
+/** Flat list of sprites to draw (sprite id and top left position, plus
+ *  the position at the start of the tick so the renderer can interpolate
+ *  between ticks). Filled by Game.draw and consumed by whatever renders
+ *  the frame. */
+public class DrawList {
+  public DrawList() {
+    this(128);
+  }
+
+  public DrawList(int capacity) {
+    sprite_ = new int [capacity];
+    x_      = new int [capacity];
+    y_      = new int [capacity];
+    px_     = new int [capacity];
+    py_     = new int [capacity];
+    size_   = 0;
+  }
+
+  public void clear() { size_ = 0; }
+
+  public void copyFrom(DrawList l) {
+    while (sprite_.length < l.size_)
+      grow();
+
+    System.arraycopy(l.sprite_, 0, sprite_, 0, l.size_);
+    System.arraycopy(l.x_     , 0, x_     , 0, l.size_);
+    System.arraycopy(l.y_     , 0, y_     , 0, l.size_);
+    System.arraycopy(l.px_    , 0, px_    , 0, l.size_);
+    System.arraycopy(l.py_    , 0, py_    , 0, l.size_);
+
+    size_ = l.size_;
+  }
+
+  /** Returns true if entry i is the same in both lists. */
+  public boolean same(int i, DrawList l) {
+    return sprite_[i] == l.sprite_[i] && x_[i] == l.x_[i] && y_[i] == l.y_[i];
+  }
+
+  /** Add a sprite that didn't move this tick. */
+  public void add(int sprite, int x, int y) {
+    add(sprite, x, y, x, y);
+  }
+
+  /** Add a sprite at x, y which was at px, py at the start of the tick. */
+  public void add(int sprite, int x, int y, int px, int py) {
+    if (size_ >= sprite_.length)
+      grow();
+
+    sprite_[size_] = sprite;
+    x_     [size_] = x;
+    y_     [size_] = y;
+    px_    [size_] = px;
+    py_    [size_] = py;
+
+    ++size_;
+  }
+
+  public int size() { return size_; }
+
+  public int sprite(int i) { return sprite_[i]; }
+
+  public int x(int i) { return x_[i]; }
+  public int y(int i) { return y_[i]; }
+
+  /** Position at the start of the tick. */
+  public int prevX(int i) { return px_[i]; }
+  public int prevY(int i) { return py_[i]; }
+
+  /** Position a fraction alpha (0-1) of the way through the tick. Jumps
+   *  (respawn, new wave) larger than maxStep are not interpolated. */
+  public int x(int i, float alpha, int maxStep) {
+    return lerp(px_[i], x_[i], alpha, maxStep);
+  }
+
+  public int y(int i, float alpha, int maxStep) {
+    return lerp(py_[i], y_[i], alpha, maxStep);
+  }
+
+  /** Draw every entry through r at alpha (0-1) of the way through the
+   *  tick (see x(int, float, int)). */
+  public void render(Renderer r, float alpha, int maxStep) {
+    r.begin();
+
+    for (int i = 0; i < size_; ++i)
+      r.sprite(sprite_[i], x(i, alpha, maxStep), y(i, alpha, maxStep));
+
+    r.end();
+  }
+
+  private static int lerp(int p, int v, float alpha, int maxStep) {
+    if (p == v || Math.abs(v - p) > maxStep) return v;
+
+    return p + Math.round((v - p)*alpha);
+  }
+
+  private void grow() {
+    int n = 2*sprite_.length;
+
+    sprite_ = Arrays.copyOf(sprite_, n);
+    x_      = Arrays.copyOf(x_     , n);
+    y_      = Arrays.copyOf(y_     , n);
+    px_     = Arrays.copyOf(px_    , n);
+    py_     = Arrays.copyOf(py_    , n);
+  }
+
+  private int sprite_[];
+  private int x_[];
+  private int y_[];
+  private int px_[];
+  private int py_[];
+  private int size_;
+}
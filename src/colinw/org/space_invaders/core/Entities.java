@@ -0,0 +1,324 @@
+package colinw.org.space_invaders.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Dense component store for the free moving game objects (the ship, the
+ *  bullets and the mystery ship), the formation is kept by AlienManager.
+ *
+ *  Each component is a primitive array indexed by entity: position (and
+ *  the position at the start of the tick), velocity (pixels per second,
+ *  the fraction of a pixel left over each tick carries over to the next),
+ *  sprite, collider (half width and height) and state (DEAD, ALIVE or
+ *  remaining explosion ticks). Owners add a fixed range of entities at setup (a pool, a dead
+ *  entity is a free slot) and the systems below walk a range of the
+ *  arrays in index order, so a tick costs the same whatever is alive and
+ *  never allocates.
+ *
+ *  Entities whose centre leaves the play area die. */
+public class Entities {
+  public static final byte DEAD  = -1;
+  public static final byte ALIVE = 0;
+
+  private static final int EXPLODE_MILLIS = 400;
+
+  // explosion sprite is drawn centred on the entity
+  private static final int EXPLODE_HALF = 24;
+
+  /** Store updated tickRate times a second whose play area is
+   *  x1 <= x < x2, y1 <= y < y2. */
+  public Entities(int capacity, int tickRate, int x1, int y1, int x2, int y2) {
+    size_   = 0;
+    x_      = new int  [capacity];
+    y_      = new int  [capacity];
+    prevX_  = new int  [capacity];
+    prevY_  = new int  [capacity];
+    dx_     = new int  [capacity];
+    dy_     = new int  [capacity];
+    remX_   = new int  [capacity];
+    remY_   = new int  [capacity];
+    sprite_ = new int  [capacity];
+    hw_     = new int  [capacity];
+    hh_     = new int  [capacity];
+    state_  = new byte [capacity];
+    x1_     = x1;
+    y1_     = y1;
+    x2_     = x2;
+    y2_     = y2;
+
+    tickRate_     = tickRate;
+    explodeTicks_ = (byte) Game.ticks(EXPLODE_MILLIS, tickRate);
+  }
+
+  /** Add n dead entities with sprite, a w x h collider and velocity dx, dy
+   *  (pixels per second), returns the index of the first. Setup only (may
+   *  grow the arrays). */
+  public int add(int n, int sprite, int w, int h, int dx, int dy) {
+    if (size_ + n > x_.length)
+      grow(Math.max(size_ + n, 2*x_.length));
+
+    int first = size_;
+
+    for (int i = first; i < first + n; ++i) {
+      x_     [i] = 0;
+      y_     [i] = 0;
+      prevX_ [i] = 0;
+      prevY_ [i] = 0;
+      dx_    [i] = dx;
+      dy_    [i] = dy;
+      remX_  [i] = 0;
+      remY_  [i] = 0;
+      sprite_[i] = sprite;
+      hw_    [i] = w/2;
+      hh_    [i] = h/2;
+      state_ [i] = DEAD;
+    }
+
+    size_ += n;
+
+    return first;
+  }
+
+  public int size() { return size_; }
+
+  public int x (int i) { return x_ [i]; }
+  public int y (int i) { return y_ [i]; }
+  public int dy(int i) { return dy_[i]; }
+
+  /** Position at the start of the tick. */
+  public int prevX(int i) { return prevX_[i]; }
+  public int prevY(int i) { return prevY_[i]; }
+
+  public int x1(int i) { return x_[i] - hw_[i]; }
+  public int y1(int i) { return y_[i] - hh_[i]; }
+  public int x2(int i) { return x_[i] + hw_[i]; }
+  public int y2(int i) { return y_[i] + hh_[i]; }
+
+  /** Top and bottom of the collider swept from the start of tick position
+   *  to the current one (fast bullets move further than their height). */
+  public int sweptY1(int i) { return Math.min(y_[i], prevY_[i]) - hh_[i]; }
+  public int sweptY2(int i) { return Math.max(y_[i], prevY_[i]) + hh_[i]; }
+
+  public boolean isAlive    (int i) { return state_[i] == ALIVE; }
+  public boolean isDead     (int i) { return state_[i] == DEAD; }
+  public boolean isExploding(int i) { return state_[i] > 0; }
+
+  public void kill   (int i) { state_[i] = DEAD; }
+  public void explode(int i) { state_[i] = explodeTicks_; }
+
+  /** Move within the tick (drawn moving from the start of tick position). */
+  public void setX(int i, int x) { x_[i] = x; }
+
+  /** Jump to x, y (not interpolated), state is unchanged. */
+  public void place(int i, int x, int y) {
+    x_[i] = x; prevX_[i] = x; remX_[i] = 0;
+    y_[i] = y; prevY_[i] = y; remY_[i] = 0;
+  }
+
+  /** Bring the first dead entity of [first, first + n) to life at x, y,
+   *  returns it or -1 if all are in use. */
+  public int spawn(int first, int n, int x, int y) {
+    for (int i = first; i < first + n; ++i) {
+      if (state_[i] != DEAD) continue;
+
+      place(i, x, y);
+
+      state_[i] = ALIVE;
+
+      return i;
+    }
+
+    return -1;
+  }
+
+  //--------------
+
+  /** Remember every position at the start of the tick (the renderer
+   *  interpolates from it). */
+  public void savePos() {
+    System.arraycopy(x_, 0, prevX_, 0, size_);
+    System.arraycopy(y_, 0, prevY_, 0, size_);
+  }
+
+  /** Move the entities of [first, first + n) by their velocity (they die
+   *  if they leave the play area) and count down explosions. */
+  public void update(int first, int n) {
+    int rate = tickRate_;
+
+    for (int i = first; i < first + n; ++i) {
+      byte state = state_[i];
+
+      if (state == DEAD) continue;
+
+      // explosions keep drifting until done
+      if (state > 0) {
+        state_[i] = (state == 1 ? DEAD : (byte) (state - 1));
+
+        if (state == 1) continue;
+      }
+
+      // whole pixels moved this tick, the rest carries over
+      int ax = remX_[i] + dx_[i], mx = floorDiv(ax, rate);
+      int ay = remY_[i] + dy_[i], my = floorDiv(ay, rate);
+
+      remX_[i] = ax - mx*rate;
+      remY_[i] = ay - my*rate;
+
+      int x = x_[i] + mx;
+      int y = y_[i] + my;
+
+      x_[i] = x;
+      y_[i] = y;
+
+      if (x < x1_ || x >= x2_ || y < y1_ || y >= y2_)
+        state_[i] = DEAD;
+    }
+  }
+
+  /** First live entity of [first, first + n) overlapping the rectangle,
+   *  or -1. */
+  public int findHit(int first, int n, int x1, int y1, int x2, int y2) {
+    for (int i = first; i < first + n; ++i) {
+      if (state_[i] == ALIVE && overlaps(i, x1, y1, x2, y2))
+        return i;
+    }
+
+    return -1;
+  }
+
+  /** First live entity of [first, first + n) whose collider, swept over
+   *  this tick, overlaps the swept collider of j, or -1 (bullets closing
+   *  on each other move further than their heights in a tick). */
+  public int findSweptHit(int first, int n, int j) {
+    int x1 = x1(j), y1 = sweptY1(j);
+    int x2 = x2(j), y2 = sweptY2(j);
+
+    for (int i = first; i < first + n; ++i) {
+      if (state_[i] != ALIVE) continue;
+
+      int x = x_[i], hw = hw_[i];
+
+      if (x + hw < x1 || x - hw > x2 || sweptY2(i) < y1 || sweptY1(i) > y2)
+        continue;
+
+      return i;
+    }
+
+    return -1;
+  }
+
+  public boolean overlaps(int i, int j) {
+    return overlaps(i, x1(j), y1(j), x2(j), y2(j));
+  }
+
+  public boolean overlaps(int i, int x1, int y1, int x2, int y2) {
+    int x = x_[i], hw = hw_[i];
+    int y = y_[i], hh = hh_[i];
+
+    if (x + hw < x1 || x - hw > x2 || y + hh < y1 || y - hh > y2)
+      return false;
+
+    return true;
+  }
+
+  /** Add the sprites of [first, first + n) which aren't dead. */
+  public void draw(DrawList l, int first, int n) {
+    for (int i = first; i < first + n; ++i) {
+      byte state = state_[i];
+
+      if (state == DEAD) continue;
+
+      int x = x_[i], px = prevX_[i];
+      int y = y_[i], py = prevY_[i];
+
+      if (state > 0)
+        l.add(Sprite.EXPLODE, x - EXPLODE_HALF, y - EXPLODE_HALF,
+              px - EXPLODE_HALF, py - EXPLODE_HALF);
+      else
+        l.add(sprite_[i], x - hw_[i], y - hh_[i], px - hw_[i], py - hh_[i]);
+    }
+  }
+
+  //--------------
+
+  // count, then per entity the state and, unless dead, the position and
+  // the pixel fractions carried over (the other components are fixed by
+  // the owners at setup)
+  void save(DataOutputStream out) throws IOException {
+    out.writeShort(size_);
+
+    for (int i = 0; i < size_; ++i) {
+      out.writeByte(state_[i]);
+
+      if (state_[i] == DEAD) continue;
+
+      out.writeShort(x_[i]);
+      out.writeShort(y_[i]);
+      out.writeShort(remX_[i]);
+      out.writeShort(remY_[i]);
+    }
+  }
+
+  // version 2 (see Game.saveState) has no pixel fractions
+  void restore(DataInputStream in, int version) throws IOException {
+    if (in.readUnsignedShort() != size_)
+      throw new IOException("Saved entities don't match");
+
+    for (int i = 0; i < size_; ++i) {
+      state_[i] = in.readByte();
+
+      if (state_[i] < DEAD || state_[i] > explodeTicks_)
+        throw new IOException("Bad entity state");
+
+      if (state_[i] == DEAD) continue;
+
+      place(i, in.readShort(), in.readShort());
+
+      if (version <= 2) continue;
+
+      remX_[i] = in.readShort();
+      remY_[i] = in.readShort();
+
+      if (remX_[i] < 0 || remX_[i] >= tickRate_ || remY_[i] < 0 || remY_[i] >= tickRate_)
+        throw new IOException("Bad entity position");
+    }
+  }
+
+  // floor of a/b for b > 0
+  private static int floorDiv(int a, int b) {
+    int q = a/b;
+
+    if (a % b != 0 && a < 0) --q;
+
+    return q;
+  }
+
+  private void grow(int capacity) {
+    x_      = Arrays.copyOf(x_     , capacity);
+    y_      = Arrays.copyOf(y_     , capacity);
+    prevX_  = Arrays.copyOf(prevX_ , capacity);
+    prevY_  = Arrays.copyOf(prevY_ , capacity);
+    dx_     = Arrays.copyOf(dx_    , capacity);
+    dy_     = Arrays.copyOf(dy_    , capacity);
+    remX_   = Arrays.copyOf(remX_  , capacity);
+    remY_   = Arrays.copyOf(remY_  , capacity);
+    sprite_ = Arrays.copyOf(sprite_, capacity);
+    hw_     = Arrays.copyOf(hw_    , capacity);
+    hh_     = Arrays.copyOf(hh_    , capacity);
+    state_  = Arrays.copyOf(state_ , capacity);
+  }
+
+  private int  size_;
+  private int  x_[], y_[];
+  private int  prevX_[], prevY_[];
+  private int  dx_[], dy_[];
+  private int  remX_[], remY_[]; // pixel fractions (1/tickRate_ pixels)
+  private int  sprite_[];
+  private int  hw_[], hh_[];
+  private byte state_[];
+  private int  x1_, y1_, x2_, y2_;
+  private int  tickRate_;
+  private byte explodeTicks_;
+}
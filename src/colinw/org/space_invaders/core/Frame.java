@@ -0,0 +1,108 @@
+package colinw.org.space_invaders.core;
+
+/** Immutable-once-published render state for one tick: the sprites to draw
+ *  plus the HUD values. Filled by Game.snapshot on the tick thread and only
+ *  read by the renderer after it has been handed over by a FrameBuffer. */
+public class Frame {
+  public Frame() {
+    sprites_     = new DrawList();
+    tick_        = 0;
+    score_       = 0;
+    lives_       = 0;
+    level_       = 0;
+    titleScreen_ = true;
+    paused_      = false;
+    gameOver_    = false;
+    shields_     = null;
+    publishTime_ = 0;
+
+    clearDirty();
+  }
+
+  public DrawList sprites() { return sprites_; }
+
+  public long tick() { return tick_; }
+
+  public int score() { return score_; }
+  public int lives() { return lives_; }
+  public int level() { return level_; }
+
+  public boolean isTitleScreen() { return titleScreen_; }
+  public boolean isPaused     () { return paused_; }
+  public boolean isGameOver   () { return gameOver_; }
+
+  public int numShields() { return (shields_ != null ? shields_.length : 0); }
+
+  /** Damage mask of shield i (drawn as sprite Sprite.SHIELD + i). */
+  public BitMask shield(int i) { return shields_[i]; }
+
+  /** Changes whenever shield i's mask changes. */
+  public int shieldVersion(int i) { return shieldVersions_[i]; }
+
+  /** Time the frame was published (System.nanoTime), the renderer
+   *  interpolates sprites over the following tick. */
+  public long publishTime() { return publishTime_; }
+
+  public void setPublishTime(long t) { publishTime_ = t; }
+
+  /** Returns true if any sprite changed since the previous frame, in
+   *  which case dirtyX1() ... dirtyY2() bound the changed pixels. */
+  public boolean isDirty() { return dirty_; }
+
+  public int dirtyX1() { return dirtyX1_; }
+  public int dirtyY1() { return dirtyY1_; }
+  public int dirtyX2() { return dirtyX2_; }
+  public int dirtyY2() { return dirtyY2_; }
+
+  /** Returns true if the whole view must be redrawn (screen changed). */
+  public boolean isFullRedraw() { return fullRedraw_; }
+
+  /** Returns true if the score, lives or level changed. */
+  public boolean isHudChanged() { return hudChanged_; }
+
+  void clearDirty() {
+    dirty_      = false;
+    fullRedraw_ = false;
+    hudChanged_ = false;
+  }
+
+  // add bounds of sprite i of list l to the dirty rectangle, from its
+  // start of tick position (it is drawn in between while interpolating)
+  void addDirty(DrawList l, int i) {
+    int s = l.sprite(i);
+
+    int x1 = Math.min(l.x(i), l.prevX(i)), x2 = Math.max(l.x(i), l.prevX(i));
+    int y1 = Math.min(l.y(i), l.prevY(i)), y2 = Math.max(l.y(i), l.prevY(i));
+
+    addDirty(x1, y1, x2 + Sprite.WIDTH[s], y2 + Sprite.HEIGHT[s]);
+  }
+
+  void addDirty(int x1, int y1, int x2, int y2) {
+    if (! dirty_) {
+      dirtyX1_ = x1; dirtyY1_ = y1;
+      dirtyX2_ = x2; dirtyY2_ = y2;
+
+      dirty_ = true;
+    }
+    else {
+      dirtyX1_ = Math.min(dirtyX1_, x1); dirtyY1_ = Math.min(dirtyY1_, y1);
+      dirtyX2_ = Math.max(dirtyX2_, x2); dirtyY2_ = Math.max(dirtyY2_, y2);
+    }
+  }
+
+  DrawList sprites_;
+  long     tick_;
+  int      score_;
+  int      lives_;
+  int      level_;
+  boolean  titleScreen_;
+  boolean  paused_;
+  boolean  gameOver_;
+  BitMask  shields_[];
+  int      shieldVersions_[];
+  long     publishTime_;
+  boolean  dirty_;
+  int      dirtyX1_, dirtyY1_, dirtyX2_, dirtyY2_;
+  boolean  fullRedraw_;
+  boolean  hudChanged_;
+}
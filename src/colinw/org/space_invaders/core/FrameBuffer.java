@@ -0,0 +1,48 @@
+package colinw.org.space_invaders.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Lock free handoff of Frames from the tick thread to the render thread.
+ *
+ *  Triple buffered: the writer owns the back frame, the reader owns the
+ *  front frame and the most recently published frame sits in the middle.
+ *  publish() and front() each swap with the middle slot using a single
+ *  atomic exchange, so neither side ever blocks or sees a frame that is
+ *  being written. */
+public class FrameBuffer {
+  private static final int INDEX_MASK = 3;
+  private static final int FRESH      = 4;
+
+  public FrameBuffer() {
+    frames_ = new Frame [3];
+
+    for (int i = 0; i < 3; ++i)
+      frames_[i] = new Frame();
+
+    back_   = 0;
+    front_  = 1;
+    middle_ = new AtomicInteger(2);
+  }
+
+  /** Frame to fill (writer thread only). */
+  public Frame back() { return frames_[back_]; }
+
+  /** Hand the back frame to the reader (writer thread only). */
+  public void publish() {
+    back_ = middle_.getAndSet(back_ | FRESH) & INDEX_MASK;
+  }
+
+  /** Most recently published frame (reader thread only). The returned
+   *  frame stays valid until the next call. */
+  public Frame front() {
+    if ((middle_.get() & FRESH) != 0)
+      front_ = middle_.getAndSet(front_) & INDEX_MASK;
+
+    return frames_[front_];
+  }
+
+  private Frame         frames_[];
+  private int           back_;
+  private int           front_;
+  private AtomicInteger middle_;
+}
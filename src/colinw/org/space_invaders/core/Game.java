@@ -0,0 +1,1982 @@
+package colinw.org.space_invaders.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Game state and tick logic. Plain Java so it can run (and be benchmarked)
+ *  on a stock JVM, the Android view only feeds it input, calls update()
+ *  on its timer and draws the sprites it lists. */
+public class Game {
+  public static final int SCREEN_WIDTH  = 800;
+  public static final int SCREEN_HEIGHT = 1100;
+
+  /** Default simulation ticks per second, the original rate (a game can
+   *  run at any rate up to MAX_TICK_RATE). Speeds are given in pixels per
+   *  second, durations in milliseconds and random events as rates per
+   *  second, and converted to per tick values with the game's rate.
+   *
+   *  At TICK_RATE the game plays by the original rules, so its saved games
+   *  and input logs continue and replay exactly. At any other rate hits
+   *  are swept over the tick and the formation bounces off the edge within
+   *  it, which plays the same at all of them (see swept_). */
+  public static final int  TICK_RATE     = 10;
+  public static final long TICK_NANOS    = 1000000000L/TICK_RATE;
+  public static final int  MAX_TICK_RATE = 120;
+
+  private static final int NUM_BASES = Sprite.NUM_SHIELDS;
+
+  // entity store capacity: the ship, two pools of 5 bullets and the
+  // mystery ship
+  private static final int NUM_ENTITIES = 12;
+
+  private static final long RAND_MULT = 0x5DEECE66DL;
+  private static final long RAND_MASK = (1L << 48) - 1;
+
+  private class Point {
+    Point() {
+      x = 0;
+      y = 0;
+    }
+
+    Point(int x1, int y1) {
+      x = x1;
+      y = y1;
+    }
+
+    public int x, y;
+  }
+
+  /** Owns the invader formation and its bullets.
+   *
+   *  The formation is stored as parallel primitive arrays indexed by alien
+   *  (row major, as added) rather than as one object per alien, so the
+   *  per tick loop walks packed arrays. Per type values (size, score,
+   *  sprites) live in small static tables.
+   *
+   *  The bounding box of the active (alive and not exploding) aliens is
+   *  kept up to date as the formation moves, so the edge test is done once
+   *  per tick rather than once per alien. It is only recalculated after
+   *  an alien is hit.
+   *
+   *  Aliens sit on a regular grid (COL_DX apart, rows ROW_DY apart) and all
+   *  active aliens move together, so the column of an active alien is
+   *  (x - offset_) and a bullet can be mapped straight to the one or two
+   *  grid cells it could touch (see findHit). */
+  class AlienManager {
+    private final int NUM_BULLETS  = 5;
+    private final int BULLET_SPEED = 200; // pixels/sec
+
+    private final int TYPE_W     [] = { 35, 48, 52 };
+    private final int TYPE_H     [] = { 35, 35, 35 };
+    private final int TYPE_SCORE [] = { 30, 20, 10 };
+    private final int TYPE_SPRITE[] = { Sprite.INVADER1A, Sprite.INVADER2A, Sprite.INVADER3A };
+
+    // alien state: STATE_ALIVE, STATE_DEAD or remaining explode ticks
+    private static final byte STATE_ALIVE = 0;
+    private static final byte STATE_DEAD  = -1;
+
+    private final byte EXPLODE_TICKS = (byte) ticks(400, tickRate_);
+    private final byte IMAGE_TICKS   = (byte) ticks(400, tickRate_);
+
+    // formation speed only changes in whole steps (pixels/sec, a pixel
+    // per tick at the original 10 Hz) and rises after each row drop
+    // (quarter pixels/sec)
+    private static final int SPEED_STEP   = 10;
+    private static final int DROP_SPEEDUP = 10;
+
+    private static final int COL_X0 = 34;
+    private static final int COL_DX = 68;
+    private static final int ROW_DY = 60;
+
+    AlienManager(int numRows, int numCols) {
+      dir_         = 1;
+      speed_       = 80;
+      moveRem_     = 0;
+      w_           = 48;
+      numAlive_    = 0;
+      needsIncRow_ = false;
+      fast_        = false;
+
+      row_y_    = new int [numRows];
+      prevRowY_ = new int [numRows];
+
+      for (int y = 0; y < numRows; ++y) {
+        row_y_   [y] = y*ROW_DY + 110;
+        prevRowY_[y] = row_y_[y];
+      }
+
+      prevOffset_ = 0;
+
+      numCols_ = numCols;
+
+      int n = numRows*numCols;
+
+      cell_ = new int [n];
+
+      for (int i = 0; i < n; ++i)
+        cell_[i] = -1;
+
+      maxHW_ = 0;
+      maxHH_ = 0;
+
+      for (int t = 0; t < TYPE_W.length; ++t) {
+        maxHW_ = Math.max(maxHW_, TYPE_W[t]/2);
+        maxHH_ = Math.max(maxHH_, TYPE_H[t]/2);
+      }
+
+      offset_ = 0;
+      moveDx_ = 0;
+      moveDy_ = 0;
+
+      num_        = 0;
+      x_          = new int  [n];
+      row_        = new byte [n];
+      col_        = new byte [n];
+      type_       = new byte [n];
+      state_      = new byte [n];
+      frame_      = new byte [n];
+      imageCount_ = new byte [n];
+
+      minX_     = 0;
+      maxX_     = 0;
+      boxDirty_ = true;
+
+      wave_          = -1;
+      fireChance_    = 0;
+      mysteryChance_ = 0;
+
+      bullets_ = entities_.add(NUM_BULLETS, Sprite.BULLET2, 9, 26, 0, BULLET_SPEED);
+    }
+
+    /** Lay out the aliens of wave (see Waves), all alive, if it isn't
+     *  already the current one. */
+    void setWave(int wave) {
+      if (wave == wave_) return;
+
+      // per tick chances
+      wave_          = wave;
+      fireChance_    = waves_.fireRate   (wave)/tickRate_;
+      mysteryChance_ = waves_.mysteryRate(wave)/tickRate_;
+
+      for (int i = 0; i < cell_.length; ++i)
+        cell_[i] = -1;
+
+      num_ = 0;
+
+      for (int row = 0; row < waves_.rows(wave); ++row) {
+        for (int col = 0; col < waves_.cols(wave); ++col) {
+          int type = waves_.cell(wave, row, col);
+
+          if (type < 0) continue;
+
+          cell_[row*numCols_ + col] = num_;
+
+          x_         [num_] = COL_X0 + col*COL_DX;
+          row_       [num_] = (byte) row;
+          col_       [num_] = (byte) col;
+          type_      [num_] = (byte) type;
+          state_     [num_] = STATE_ALIVE;
+          frame_     [num_] = 0;
+          imageCount_[num_] = IMAGE_TICKS;
+
+          ++num_;
+        }
+      }
+
+      numAlive_ = num_;
+      boxDirty_ = true;
+    }
+
+    int getWave() { return wave_; }
+
+    /** Chance the absent mystery ship appears this tick. */
+    double getMysteryChance() { return mysteryChance_; }
+
+    void reset() {
+      int level = getLevel();
+
+      setWave(waves_.forLevel(level));
+
+      // speed_ is in quarter pixels per second
+      speed_   = 4*waves_.speed(wave_, level);
+      moveRem_ = 0;
+
+      for (int y = 0; y < row_y_.length; ++y)
+        row_y_[y] = y*ROW_DY + 100;
+
+      offset_ = 0;
+      moveDx_ = 0;
+      moveDy_ = 0;
+
+      // animation frame is deliberately left as is
+      for (int i = 0; i < num_; ++i) {
+        x_         [i] = COL_X0 + col_[i]*COL_DX;
+        state_     [i] = STATE_ALIVE;
+        imageCount_[i] = 0;
+      }
+
+      numAlive_ = num_;
+      boxDirty_ = true;
+
+      for (int i = bullets_; i < bullets_ + NUM_BULLETS; ++i)
+        entities_.kill(i);
+
+      needsIncRow_ = false;
+
+      fast_ = false;
+
+      savePos();
+    }
+
+    /** Remember formation positions at the start of the tick (the bullets
+     *  are entities). */
+    void savePos() {
+      prevOffset_ = offset_;
+
+      System.arraycopy(row_y_, 0, prevRowY_, 0, row_y_.length);
+    }
+
+    // flags, speed, pixel fraction carried over, offset, last move, row
+    // positions, per alien x, state and animation (the layout itself comes
+    // from the level's wave, the bullets are saved with the entities)
+    void save(DataOutputStream out) throws IOException {
+      out.writeByte((dir_ < 0 ? 1 : 0) | (fast_ ? 2 : 0) | (needsIncRow_ ? 4 : 0));
+      out.writeInt  (speed_);
+      out.writeShort(moveRem_);
+      out.writeShort(offset_);
+      out.writeShort(moveDx_);
+      out.writeByte (moveDy_);
+
+      for (int y = 0; y < row_y_.length; ++y)
+        out.writeShort(row_y_[y]);
+
+      out.writeByte(num_);
+
+      for (int i = 0; i < num_; ++i) {
+        out.writeShort(x_[i]);
+        out.writeByte (state_[i]);
+        out.writeByte (frame_[i]);
+        out.writeByte (imageCount_[i]);
+      }
+    }
+
+    void restore(DataInputStream in, int version) throws IOException {
+      int flags = in.readByte();
+
+      dir_         = ((flags & 1) != 0 ? -1 : 1);
+      fast_        = ((flags & 2) != 0);
+      needsIncRow_ = ((flags & 4) != 0);
+
+      if (version > 2) {
+        // version 3 kept the speed in a short (unsigned, it was never
+        // negative)
+        speed_   = (version > 3 ? in.readInt() : in.readUnsignedShort());
+        moveRem_ = in.readShort();
+        offset_  = in.readShort();
+        moveDx_  = in.readShort();
+        moveDy_  = in.readByte();
+      }
+      else {
+        // quarter pixels per tick at TICK_RATE
+        speed_   = in.readShort()*TICK_RATE;
+        moveRem_ = 0;
+        offset_  = in.readShort();
+        moveDx_  = 0;
+        moveDy_  = 0;
+      }
+
+      // a move is at most a tick at the speed plus a bounce off the edge
+      if (speed_ < 0 || moveRem_ < 0 || moveRem_ >= tickRate_ ||
+          Math.abs(moveDx_) > getSpeed()/tickRate_ + SCREEN_WIDTH ||
+          moveDy_ < 0 || moveDy_ > w_/2)
+        throw new IOException("Bad formation position");
+
+      for (int y = 0; y < row_y_.length; ++y)
+        row_y_[y] = in.readShort();
+
+      if (in.readUnsignedByte() != num_)
+        throw new IOException("Saved formation doesn't match");
+
+      numAlive_ = 0;
+
+      for (int i = 0; i < num_; ++i) {
+        x_         [i] = in.readShort();
+        state_     [i] = in.readByte();
+        frame_     [i] = in.readByte();
+        imageCount_[i] = in.readByte();
+
+        if (state_[i] == STATE_ALIVE) ++numAlive_;
+      }
+
+      boxDirty_ = true;
+
+      savePos();
+    }
+
+    int getNumAliens() { return num_; }
+
+    int getNumAlive() { return numAlive_; }
+
+    boolean isAlive(int i) { return state_[i] == STATE_ALIVE; }
+
+    int getX(int i) { return x_[i]; }
+    int getY(int i) { return row_y_[row_[i]]; }
+
+    /** Alien bullet i (0 to NUM_BULLETS - 1) entity. */
+    int getBullet(int i) { return bullets_ + i; }
+
+    int getWidth() { return w_; }
+
+    int getRowY(int row) { return row_y_[row]; }
+
+    int getDir() { return dir_; }
+
+    /** Formation speed in pixels/sec (doubled when few are left). */
+    int getSpeed() {
+      if (! fast_)
+        return speed_/(4*SPEED_STEP)*SPEED_STEP;
+      else
+        return speed_/(2*SPEED_STEP)*SPEED_STEP;
+    }
+
+    void needsIncRow() { needsIncRow_ = true; }
+
+    void preUpdate() {
+      needsIncRow_ = false;
+
+      moveDy_ = 0;
+    }
+
+    /** Move, animate and fire every alien in the formation. */
+    void updateAliens() {
+      if (boxDirty_)
+        updateBox();
+
+      // move in 1/tickRate_ pixels from the whole pixel position
+      int move = moveRem_ + getSpeed()*getDir();
+
+      // reaching the edge it is heading for the formation bounces off it
+      // (and the row drops at the end of the tick), so it sweeps and drops
+      // at the same times at any tick rate but TICK_RATE (see swept_)
+      if (swept_ && numAlive_ > 0) {
+        int hs   = getWidth()/2;
+        int edge = tickRate_*(dir_ > 0 ? SCREEN_WIDTH - hs - maxX_ : hs - 1 - minX_);
+
+        if (dir_ > 0 ? move >= edge : move <= edge) {
+          move = 2*edge - move;
+
+          needsIncRow();
+        }
+      }
+
+      // whole pixels moved this tick, the rest carries over
+      int dx = floorDiv(move, tickRate_);
+
+      moveRem_ = move - dx*tickRate_;
+      moveDx_  = dx;
+
+      for (int i = 0; i < num_; ++i) {
+        byte state = state_[i];
+
+        if (state == STATE_DEAD) continue;
+
+        if (state > 0) {
+          // exploding aliens keep drifting with the formation until done
+          --state_[i];
+
+          if (state_[i] == 0)
+            state_[i] = STATE_DEAD;
+          else
+            x_[i] += dx;
+
+          continue;
+        }
+
+        x_[i] += dx;
+
+        if (--imageCount_[i] <= 0) {
+          frame_     [i] = (byte) (1 - frame_[i]);
+          imageCount_[i] = IMAGE_TICKS;
+        }
+
+        int y = row_y_[row_[i]];
+
+        if (random() < fireChance_)
+          fire(x_[i], y);
+
+        if (y > 850) {
+          int hw = TYPE_W[type_[i]]/2;
+          int hh = TYPE_H[type_[i]]/2;
+
+          checkBaseHit(x_[i] - hw, y - hh, x_[i] + hw, y + hh);
+        }
+
+        if (y > 1050) gameOver();
+      }
+
+      offset_ += dx;
+
+      // whole formation moves together so the box just shifts
+      minX_ += dx;
+      maxX_ += dx;
+
+      // the original rule, it drops once it has passed either edge
+      if (! swept_) {
+        int hs = getWidth()/2;
+
+        if (numAlive_ > 0 && (maxX_ >= SCREEN_WIDTH - hs || minX_ < hs))
+          needsIncRow();
+      }
+    }
+
+    void postUpdate() {
+      if (needsIncRow_) {
+        for (int y = 0; y < row_y_.length; ++y)
+          row_y_[y] += w_/2;
+
+        moveDy_ = w_/2;
+
+        dir_ = -dir_;
+
+        speed_ += DROP_SPEEDUP;
+
+        needsIncRow_ = false;
+      }
+
+      if (numAlive_ == 0)
+        nextLevel();
+
+      fast_ = (numAlive_ < 4);
+    }
+
+    /** Move the bullets, then check what each hits. */
+    void update() {
+      entities_.update(bullets_, NUM_BULLETS);
+
+      for (int i = bullets_; i < bullets_ + NUM_BULLETS; ++i) {
+        if (entities_.isAlive(i))
+          checkPlayerHit(i);
+
+        if (entities_.isAlive(i))
+          checkBaseHit(i);
+      }
+    }
+
+    void fire(int x, int y) {
+      entities_.spawn(bullets_, NUM_BULLETS, x, y + 24);
+    }
+
+    /** Check player bullet against the formation, first hit alien explodes.
+     *  Swept (see swept_), seen from the formation the bullet moved across
+     *  and down by the formation's last move, then up by its own this
+     *  tick, both are tested. */
+    void checkAlienHit(int bullet) {
+      Entities e = entities_;
+
+      if (! e.isAlive(bullet)) return;
+
+      int i;
+
+      if (swept_) {
+        int y = e.prevY(bullet), hh = (e.y2(bullet) - e.y1(bullet))/2;
+
+        i = findHit(e.x1(bullet) + Math.min(moveDx_, 0), y - hh,
+                    e.x2(bullet) + Math.max(moveDx_, 0), y + hh + moveDy_);
+
+        if (i < 0)
+          i = findHit(e.x1(bullet), e.sweptY1(bullet), e.x2(bullet), e.sweptY2(bullet));
+      }
+      else
+        i = findHit(e.x1(bullet), e.y1(bullet), e.x2(bullet), e.y2(bullet));
+
+      if (i < 0) return;
+
+      killAlien(i);
+
+      publish(GameEvents.ALIEN_KILLED, x_[i], row_y_[row_[i]], TYPE_SCORE[type_[i]]);
+
+      entities_.kill(bullet);
+    }
+
+    /** Lowest index active alien overlapping the rectangle, or -1.
+     *
+     *  Rejects against the formation bounding box, then only tests the grid
+     *  cells whose alien could overlap (at most two rows and, for a bullet,
+     *  one column). Same result as findHitBruteForce. */
+    int findHit(int x1, int y1, int x2, int y2) {
+      if (numAlive_ == 0) return -1;
+
+      if (boxDirty_)
+        updateBox();
+
+      int numRows = row_y_.length;
+
+      if (x2 < minX_ - maxHW_ || x1 > maxX_ + maxHW_) return -1;
+
+      int y0 = row_y_[0];
+
+      if (y2 < y0 - maxHH_ || y1 > row_y_[numRows - 1] + maxHH_) return -1;
+
+      int x0 = COL_X0 + offset_;
+
+      // candidate rows/columns (ceil/floor of the overlap range)
+      int r1 = Math.max(-floorDiv(y0 + maxHH_ - y1, ROW_DY), 0);
+      int r2 = Math.min( floorDiv(y2 + maxHH_ - y0, ROW_DY), numRows - 1);
+      int c1 = Math.max(-floorDiv(x0 + maxHW_ - x1, COL_DX), 0);
+      int c2 = Math.min( floorDiv(x2 + maxHW_ - x0, COL_DX), numCols_ - 1);
+
+      int hit = -1;
+
+      for (int r = r1; r <= r2; ++r) {
+        for (int c = c1; c <= c2; ++c) {
+          int i = cell_[r*numCols_ + c];
+
+          if (i < 0 || (hit >= 0 && i > hit)) continue;
+
+          if (state_[i] == STATE_ALIVE && overlaps(i, x1, y1, x2, y2))
+            hit = i;
+        }
+      }
+
+      return hit;
+    }
+
+    /** Reference version of findHit which tests every alien. */
+    int findHitBruteForce(int x1, int y1, int x2, int y2) {
+      for (int i = 0; i < num_; ++i) {
+        if (state_[i] == STATE_ALIVE && overlaps(i, x1, y1, x2, y2))
+          return i;
+      }
+
+      return -1;
+    }
+
+    boolean overlaps(int i, int x1, int y1, int x2, int y2) {
+      int hw = TYPE_W[type_[i]]/2;
+      int hh = TYPE_H[type_[i]]/2;
+      int x  = x_[i];
+      int y  = row_y_[row_[i]];
+
+      if (x + hw < x1 || x - hw > x2 || y + hh < y1 || y - hh > y2)
+        return false;
+
+      return true;
+    }
+
+    void killAlien(int i) {
+      state_[i] = EXPLODE_TICKS;
+
+      --numAlive_;
+
+      boxDirty_ = true;
+    }
+
+    /** Remove all but the first n aliens (benchmarks/tools). */
+    void thin(int n) {
+      for (int i = n; i < num_; ++i) {
+        if (state_[i] == STATE_ALIVE)
+          --numAlive_;
+
+        state_[i] = STATE_DEAD;
+      }
+
+      boxDirty_ = true;
+    }
+
+    /** Player bullet and the first alien bullet it met this tick (touches
+     *  unless swept_) destroy each other. */
+    void checkHit(int bullet) {
+      Entities e = entities_;
+
+      if (! e.isAlive(bullet)) return;
+
+      int i = (swept_ ? e.findSweptHit(bullets_, NUM_BULLETS, bullet) :
+                        e.findHit(bullets_, NUM_BULLETS, e.x1(bullet), e.y1(bullet),
+                                  e.x2(bullet), e.y2(bullet)));
+
+      if (i < 0) return;
+
+      entities_.kill(i);
+
+      entities_.kill(bullet);
+    }
+
+    void drawAliens(DrawList l) {
+      // the whole formation moved by the same amount this tick
+      int dx = offset_ - prevOffset_;
+
+      for (int i = 0; i < num_; ++i) {
+        byte state = state_[i];
+
+        if (state == STATE_DEAD) continue;
+
+        int x  = x_[i];
+        int y  = row_y_[row_[i]];
+        int py = prevRowY_[row_[i]];
+
+        if (state > 0)
+          l.add(Sprite.EXPLODE, x - 24, y - 24, x - dx - 24, py - 24);
+        else {
+          int t  = type_[i];
+          int hw = TYPE_W[t]/2;
+          int hh = TYPE_H[t]/2;
+
+          l.add(TYPE_SPRITE[t] + frame_[i], x - hw, y - hh, x - dx - hw, py - hh);
+        }
+      }
+    }
+
+    void drawBullets(DrawList l) {
+      entities_.draw(l, bullets_, NUM_BULLETS);
+    }
+
+    // floor of a/b for b > 0
+    private int floorDiv(int a, int b) {
+      int q = a/b;
+
+      if (a % b != 0 && a < 0) --q;
+
+      return q;
+    }
+
+    // recalculate x extent of active aliens
+    private void updateBox() {
+      minX_ = Integer.MAX_VALUE;
+      maxX_ = Integer.MIN_VALUE;
+
+      for (int i = 0; i < num_; ++i) {
+        if (state_[i] != STATE_ALIVE) continue;
+
+        if (x_[i] < minX_) minX_ = x_[i];
+        if (x_[i] > maxX_) maxX_ = x_[i];
+      }
+
+      boxDirty_ = false;
+    }
+
+    private int         row_y_[];
+    private int         prevRowY_[];
+    private int         prevOffset_;
+    private int         dir_;
+    private int         speed_;
+    private int         moveRem_; // pixel fraction (1/tickRate_ pixels)
+    private int         w_;
+    private int         numAlive_;
+    private boolean     needsIncRow_;
+    private boolean     fast_;
+    private int         num_;
+    private int         x_[];
+    private byte        row_[];
+    private byte        col_[];
+    private byte        type_[];
+    private byte        state_[];
+    private byte        frame_[];
+    private byte        imageCount_[];
+    private int         numCols_;
+    private int         cell_[];
+    private int         offset_;
+    private int         moveDx_, moveDy_; // formation's move last tick
+    private int         maxHW_, maxHH_;
+    private int         minX_, maxX_;
+    private boolean     boxDirty_;
+    private int         wave_;
+    private double      fireChance_;
+    private double      mysteryChance_;
+    private int         bullets_; // first bullet entity
+  };
+
+  /** The mystery ship, one entity (see Entities) which now and then
+   *  crosses the top of the screen. */
+  class MysteryAlien {
+    private final int SPEED = -40; // pixels/sec
+    private final int W     = 71;
+    private final int H     = 31;
+    private final int Y     = 60;
+
+    MysteryAlien() {
+      id_ = entities_.add(1, Sprite.MYSTERY, W, H, SPEED, 0);
+
+      reset();
+    }
+
+    int getScore() {
+      double r = random();
+
+      if      (r < 0.50) return 100;
+      else if (r < 0.80) return 200;
+      else if (r < 0.95) return 300;
+      else               return 400;
+    }
+
+    boolean isDead() { return entities_.isDead(id_); }
+
+    /** Gone, waiting off the right edge. */
+    void reset() {
+      entities_.place(id_, SCREEN_WIDTH + W/2, Y);
+
+      entities_.kill(id_);
+    }
+
+    /** Start crossing from the right edge. */
+    void appear() {
+      entities_.spawn(id_, 1, SCREEN_WIDTH + W/2, Y);
+    }
+
+    void update() {
+      entities_.update(id_, 1);
+    }
+
+    void checkHit(int bullet) {
+      if (! entities_.isAlive(bullet)) return;
+
+      if (! entities_.isAlive(id_)) return;
+
+      boolean hit = (swept_ ?
+                     entities_.overlaps(id_, entities_.x1(bullet), entities_.sweptY1(bullet),
+                                        entities_.x2(bullet), entities_.sweptY2(bullet)) :
+                     entities_.overlaps(id_, bullet));
+
+      if (hit) {
+        entities_.explode(id_);
+
+        publish(GameEvents.MYSTERY_KILLED, entities_.x(id_), entities_.y(id_), getScore());
+
+        entities_.kill(bullet);
+      }
+    }
+
+    void draw(DrawList l) {
+      entities_.draw(l, id_, 1);
+    }
+
+    private int id_;
+  };
+
+  class Score {
+    Score() {
+      score_ = 0;
+    }
+
+    void add(int i) { score_ += i; }
+
+    int value() { return score_; }
+
+    void reset() {
+      score_ = 0;
+    }
+
+    private int score_;
+  };
+
+  /** The ship and its bullets (entities, see Entities) plus lives and
+   *  the fire rate limit. */
+  class Player {
+    private final int DX           = 8;   // pixels per move input (not per tick)
+    private final int SPEED        = 320; // pixels per second while a direction is held
+    private final int HOLD_RATE    = SPEED/DX; // move inputs per second while held
+    private final int FIRE_BLOCK   = ticks(800, tickRate_); // ticks between shots
+    private final int NUM_LIVES    = 3;
+    private final int NUM_BULLETS  = 5;
+    private final int W            = 57;
+    private final int H            = 35;
+    private final int Y            = 1050;
+    private final int BULLET_SPEED = 400; // pixels/sec
+
+    Player() {
+      ship_    = entities_.add(1, Sprite.PLAYER, W, H, 0, 0);
+      bullets_ = entities_.add(NUM_BULLETS, Sprite.BULLET1, 4, 26, 0, -BULLET_SPEED);
+
+      entities_.spawn(ship_, 1, SCREEN_WIDTH/2, Y);
+
+      lives_      = NUM_LIVES;
+      d_          = DX;
+      fire_block_ = 0;
+    }
+
+    void reset() {
+      entities_.place(ship_, SCREEN_WIDTH/2, Y);
+
+      lives_      = NUM_LIVES;
+      fire_block_ = 0;
+
+      for (int i = bullets_; i < bullets_ + NUM_BULLETS; ++i)
+        entities_.kill(i);
+    }
+
+    int getLives() { return lives_; }
+
+    // lives and fire block (the ship and bullets are saved with the
+    // entities)
+    void save(DataOutputStream out) throws IOException {
+      out.writeByte(lives_);
+      out.writeByte(fire_block_);
+    }
+
+    void restore(DataInputStream in) throws IOException {
+      lives_      = in.readByte();
+      fire_block_ = in.readByte();
+    }
+
+    void moveLeft () {
+      int x = entities_.x(ship_) - d_;
+
+      if (x < W/2) x = W/2;
+
+      entities_.setX(ship_, x);
+    }
+
+    void moveRight() {
+      int x = entities_.x(ship_) + d_;
+
+      if (x >= SCREEN_WIDTH - W/2) x = SCREEN_WIDTH - W/2 - 1;
+
+      entities_.setX(ship_, x);
+    }
+
+    void fire() {
+      if (fire_block_ > 0) return;
+
+      int x = entities_.x(ship_);
+      int y = entities_.y(ship_) - H/2;
+
+      if (entities_.spawn(bullets_, NUM_BULLETS, x, y) < 0) return;
+
+      fire_block_ = FIRE_BLOCK;
+
+      publish(GameEvents.SHOT_FIRED, x, y, 0);
+    }
+
+    /** Move the bullets, then check what each hits. */
+    void update() {
+      if (fire_block_ > 0) --fire_block_;
+
+      entities_.update(bullets_, NUM_BULLETS);
+
+      for (int i = bullets_; i < bullets_ + NUM_BULLETS; ++i) {
+        if (entities_.isAlive(i))
+          checkAlienHit(i);
+
+        if (entities_.isAlive(i))
+          checkBaseHit(i);
+      }
+    }
+
+    /** Alien bullet against the ship. Swept (see swept_), the ship moved
+     *  across this tick before the bullet moved down, both are tested. */
+    void checkHit(int bullet) {
+      Entities e = entities_;
+
+      if (! e.isAlive(bullet)) return;
+
+      if (swept_) {
+        int dx = e.x(ship_) - e.prevX(ship_);
+        int y  = e.prevY(bullet), hh = (e.y2(bullet) - e.y1(bullet))/2;
+
+        if (! e.overlaps(ship_, e.x1(bullet) + Math.min(dx, 0), y - hh,
+                                e.x2(bullet) + Math.max(dx, 0), y + hh) &&
+            ! e.overlaps(ship_, e.x1(bullet), e.sweptY1(bullet),
+                                e.x2(bullet), e.sweptY2(bullet)))
+          return;
+      }
+      else if (! e.overlaps(ship_, bullet))
+        return;
+
+      --lives_;
+
+      publish(GameEvents.PLAYER_HIT, entities_.x(ship_), entities_.y(ship_), lives_);
+
+      entities_.kill(bullet);
+
+      if (lives_ <= 0)
+        gameOver();
+    }
+
+    int getShip() { return ship_; }
+
+    void draw(DrawList l) {
+      entities_.draw(l, ship_   , 1);
+      entities_.draw(l, bullets_, NUM_BULLETS);
+    }
+
+    private int ship_;
+    private int bullets_; // first bullet entity
+    private int lives_;
+    private int d_;
+    private int fire_block_;
+  };
+
+  /** Shield, stored as a 1 bit per pixel mask which bullets erode. The
+   *  undamaged shape and the crater are shared by all bases (ShieldArt). */
+  class Base {
+    static final int WIDTH  = ShieldArt.WIDTH;
+    static final int HEIGHT = ShieldArt.HEIGHT;
+
+    // pos is relative to the original 87 x 57 shield image
+    Base(int ind, Point pos) {
+      ind_     = ind;
+      x1_      = pos.x - 87/2;
+      y1_      = pos.y + 57/2;
+      mask_    = new BitMask(WIDTH, HEIGHT);
+      version_ = 0;
+
+      reset();
+    }
+
+    void reset() {
+      mask_.copyFrom(ShieldArt.SHAPE);
+
+      ++version_;
+    }
+
+    int x1() { return x1_; }
+    int y1() { return y1_; }
+    int x2() { return x1_ + WIDTH  - 1; }
+    int y2() { return y1_ + HEIGHT - 1; }
+
+    BitMask getMask() { return mask_; }
+
+    /** Incremented whenever the mask changes. */
+    int getVersion() { return version_; }
+
+    void draw(DrawList l) {
+      l.add(Sprite.SHIELD + ind_, x1_, y1_);
+    }
+
+    /** Bullet hits the first solid pixel row in its direction of travel
+     *  it passed over this tick, blows a crater there and dies. */
+    void checkHit(int bullet) {
+      Entities e = entities_;
+
+      int x1 = e.x1(bullet) - x1_, y1 = e.sweptY1(bullet) - y1_;
+      int x2 = e.x2(bullet) - x1_, y2 = e.sweptY2(bullet) - y1_;
+
+      int y = mask_.firstRow(x1, y1, x2, y2, e.dy(bullet) > 0);
+
+      if (y < 0) return;
+
+      int x = e.x(bullet) - x1_;
+
+      BitMask crater = ShieldArt.CRATER;
+
+      mask_.carve(crater, x - crater.width()/2, y - crater.height()/2);
+
+      ++version_;
+
+      e.kill(bullet);
+    }
+
+    /** Alien (rectangle) wipes out any shield it touches. */
+    void checkHit(int x1, int y1, int x2, int y2) {
+      if (mask_.clear(x1 - x1_, y1 - y1_, x2 - x1_, y2 - y1_))
+        ++version_;
+    }
+
+    // only the mask words that differ from the undamaged shape are
+    // stored: count, then per word the varint gap and the xor
+    void save(DataOutputStream out) throws IOException {
+      int wpr = mask_.wordsPerRow(), n = 0;
+
+      for (int y = 0; y < HEIGHT; ++y)
+        for (int w = 0; w < wpr; ++w)
+          if (mask_.word(y, w) != ShieldArt.SHAPE.word(y, w)) ++n;
+
+      InputLog.writeVarLong(out, n);
+
+      int last = 0;
+
+      for (int y = 0; y < HEIGHT; ++y) {
+        for (int w = 0; w < wpr; ++w) {
+          long diff = mask_.word(y, w) ^ ShieldArt.SHAPE.word(y, w);
+
+          if (diff == 0) continue;
+
+          InputLog.writeVarLong(out, y*wpr + w - last);
+
+          out.writeLong(diff);
+
+          last = y*wpr + w;
+        }
+      }
+    }
+
+    void restore(DataInputStream in) throws IOException {
+      mask_.copyFrom(ShieldArt.SHAPE);
+
+      int wpr = mask_.wordsPerRow();
+      int n   = (int) InputLog.readVarLong(in);
+      int i   = 0;
+
+      for (int j = 0; j < n; ++j) {
+        i += (int) InputLog.readVarLong(in);
+
+        if (i >= HEIGHT*wpr)
+          throw new IOException("Bad shield data");
+
+        int y = i/wpr, w = i%wpr;
+
+        mask_.setWord(y, w, mask_.word(y, w) ^ in.readLong());
+      }
+
+      ++version_;
+    }
+
+    private int     ind_;
+    private int     x1_, y1_;
+    private BitMask mask_;
+    private int     version_;
+  };
+
+  /** Static uniform grid of bases used as the broad phase for bullet and
+   *  alien vs base collisions. Bases never move so it is built once (in
+   *  init) and each query only tests the bases registered in the buckets
+   *  the rectangle overlaps, so the cost depends on the size of the
+   *  rectangle rather than on the number of bases. */
+  class BaseIndex {
+    private final int BUCKET = 32;
+
+    BaseIndex(Base bases[], int numBases) {
+      bases_ = new Base [numBases];
+      stamp_ = new int [numBases];
+
+      System.arraycopy(bases, 0, bases_, 0, numBases);
+
+      // extent of all bases
+      x1_ = Integer.MAX_VALUE; y1_ = Integer.MAX_VALUE;
+      x2_ = Integer.MIN_VALUE; y2_ = Integer.MIN_VALUE;
+
+      for (Base base : bases_) {
+        x1_ = Math.min(x1_, base.x1()); y1_ = Math.min(y1_, base.y1());
+        x2_ = Math.max(x2_, base.x2()); y2_ = Math.max(y2_, base.y2());
+      }
+
+      numCols_ = (numBases > 0 ? (x2_ - x1_)/BUCKET + 1 : 0);
+      numRows_ = (numBases > 0 ? (y2_ - y1_)/BUCKET + 1 : 0);
+
+      // count bases per bucket then fill (compressed bucket lists)
+      start_ = new int [numCols_*numRows_ + 1];
+
+      for (int pass = 0; pass < 2; ++pass) {
+        int count[] = new int [numCols_*numRows_];
+
+        for (int i = 0; i < numBases; ++i) {
+          Base base = bases_[i];
+
+          for (int r = row(base.y1()); r <= row(base.y2()); ++r) {
+            for (int c = col(base.x1()); c <= col(base.x2()); ++c) {
+              int b = r*numCols_ + c;
+
+              if (pass == 1)
+                bucket_[start_[b] + count[b]] = i;
+
+              ++count[b];
+            }
+          }
+        }
+
+        if (pass == 0) {
+          for (int b = 0; b < count.length; ++b)
+            start_[b + 1] = start_[b] + count[b];
+
+          bucket_ = new int [start_[count.length]];
+        }
+      }
+
+      query_ = 0;
+    }
+
+    void checkHit(int bullet) {
+      Entities e = entities_;
+
+      int x1 = e.x1(bullet), y1 = e.sweptY1(bullet), x2 = e.x2(bullet), y2 = e.sweptY2(bullet);
+
+      if (! begin(x1, y1, x2, y2)) return;
+
+      for (int r = row(y1); r <= row(y2); ++r) {
+        for (int c = col(x1); c <= col(x2); ++c) {
+          int b = r*numCols_ + c;
+
+          for (int j = start_[b]; j < start_[b + 1]; ++j) {
+            Base base = visit(bucket_[j]);
+
+            if (base == null || ! e.isAlive(bullet)) continue;
+
+            base.checkHit(bullet);
+          }
+        }
+      }
+    }
+
+    void checkHit(int x1, int y1, int x2, int y2) {
+      if (! begin(x1, y1, x2, y2)) return;
+
+      for (int r = row(y1); r <= row(y2); ++r) {
+        for (int c = col(x1); c <= col(x2); ++c) {
+          int b = r*numCols_ + c;
+
+          for (int j = start_[b]; j < start_[b + 1]; ++j) {
+            Base base = visit(bucket_[j]);
+
+            if (base == null) continue;
+
+            base.checkHit(x1, y1, x2, y2);
+          }
+        }
+      }
+    }
+
+    // reject rectangles outside all bases, otherwise start a new query
+    // (bases spanning several buckets are only visited once per query)
+    private boolean begin(int x1, int y1, int x2, int y2) {
+      if (x2 < x1_ || x1 > x2_ || y2 < y1_ || y1 > y2_) return false;
+
+      ++query_;
+
+      return true;
+    }
+
+    private Base visit(int i) {
+      if (stamp_[i] == query_) return null;
+
+      stamp_[i] = query_;
+
+      return bases_[i];
+    }
+
+    private int col(int x) { return Math.max(0, Math.min((x - x1_)/BUCKET, numCols_ - 1)); }
+    private int row(int y) { return Math.max(0, Math.min((y - y1_)/BUCKET, numRows_ - 1)); }
+
+    private Base bases_[];
+    private int  stamp_[];
+    private int  query_;
+    private int  x1_, y1_, x2_, y2_;
+    private int  numCols_, numRows_;
+    private int  start_[];
+    private int  bucket_[];
+  };
+
+  class Level {
+    Level() {
+      value_ = 1;
+    }
+
+    int value() { return value_; }
+
+    void next() { value_++; }
+
+    void reset() { value_ = 1; }
+
+    private int value_;
+  };
+
+  public Game() {
+    this(new Random().nextLong());
+  }
+
+  /** Game whose random choices are all driven by seed, so the same seed
+   *  and input (see InputLog) always play out the same way. */
+  public Game(long seed) {
+    this(seed, Waves.DEFAULT);
+  }
+
+  /** Seeded game playing the given waves. */
+  public Game(long seed, Waves waves) {
+    this(seed, waves, TICK_RATE);
+  }
+
+  /** Seeded game playing the given waves, updated tickRate times a second
+   *  (1 to MAX_TICK_RATE). */
+  public Game(long seed, Waves waves, int tickRate) {
+    if (tickRate < 1 || tickRate > MAX_TICK_RATE)
+      throw new IllegalArgumentException("Bad tick rate " + tickRate);
+
+    seed_     = seed;
+    waves_    = waves;
+    tickRate_ = tickRate;
+    swept_    = (tickRate != TICK_RATE);
+    rand_     = (seed ^ RAND_MULT) & RAND_MASK;
+
+    tick_ = 0;
+
+    inputQueue_ = new InputQueue(INPUT_QUEUE_SIZE);
+    hold_       = 0;
+    holdRem_    = 0;
+    inputLog_   = null;
+
+    profiler_    = null;
+    collideTime_ = 0;
+
+    prevSprites_ = null;
+
+    events_       = new GameEvents(EVENTS_SIZE);
+    consumers_    = new GameEvents.Consumer [2];
+    numConsumers_ = 0;
+
+    init();
+  }
+
+  public void setListener(GameListener listener) {
+    listener_ = listener;
+  }
+
+  public long getSeed() { return seed_; }
+
+  public long getTick() { return tick_; }
+
+  public int getTickRate() { return tickRate_; }
+
+  /** Record the input applied on every tick into log, which must have
+   *  been created with this game's seed, waves and tick rate before the
+   *  first tick. */
+  public void setInputLog(InputLog log) {
+    if (tick_ != 0 || log.seed() != seed_ || log.waves() != waves_.checksum() ||
+        log.tickRate() != tickRate_)
+      throw new IllegalStateException("Input log must start with the game");
+
+    inputLog_ = log;
+  }
+
+  /** Time the tick phases and snapshot into profiler (null to stop). */
+  public void setProfiler(Profiler profiler) {
+    profiler_ = profiler;
+  }
+
+  void init() {
+    // the ship, bullets and mystery ship (the play area extends off the
+    // right edge, where the mystery ship enters)
+    entities_ = new Entities(NUM_ENTITIES, tickRate_, 0, 10, 2*SCREEN_WIDTH, SCREEN_HEIGHT);
+
+    player_ = new Player();
+
+    level_ = new Level();
+
+    score_ = new Score();
+
+    alienMgr_ = new AlienManager(waves_.maxRows(), waves_.maxCols());
+
+    mysteryAlien_ = new MysteryAlien();
+
+    bases_    = new Base [NUM_BASES];
+    numBases_ = 0;
+
+    titleScreen_ = true;
+    paused_      = false;
+    gameOver_    = false;
+
+    for (int i = 0; i < NUM_BASES; ++i)
+      addBase(new Point(98*(2*i + 1), 940));
+
+    baseIndex_ = new BaseIndex(bases_, numBases_);
+
+    alienMgr_.setWave(waves_.forLevel(getLevel()));
+  }
+
+  /** Copy the render state into frame (called on the tick thread). */
+  public void snapshot(Frame frame) {
+    Profiler prof = profiler_;
+
+    long t = (prof != null ? System.nanoTime() : 0);
+
+    frame.tick_        = tick_;
+    frame.score_       = getScore();
+    frame.lives_       = getLives();
+    frame.level_       = getLevel();
+    frame.titleScreen_ = titleScreen_;
+    frame.paused_      = paused_;
+    frame.gameOver_    = gameOver_;
+
+    if (frame.shields_ == null) {
+      frame.shields_        = new BitMask [numBases_];
+      frame.shieldVersions_ = new int [numBases_];
+
+      for (int i = 0; i < numBases_; ++i)
+        frame.shields_[i] = new BitMask(Base.WIDTH, Base.HEIGHT);
+    }
+
+    // shield masks are only copied when they have changed
+    for (int i = 0; i < numBases_; ++i) {
+      if (frame.shieldVersions_[i] == bases_[i].getVersion()) continue;
+
+      frame.shields_[i].copyFrom(bases_[i].getMask());
+
+      frame.shieldVersions_[i] = bases_[i].getVersion();
+    }
+
+    draw(frame.sprites_);
+
+    updateDirty(frame);
+
+    if (prof != null)
+      prof.mark(Profiler.SNAPSHOT, t);
+  }
+
+  // work out what changed since the previous snapshot: sprites that
+  // appeared, vanished or moved, damaged shields and the HUD values
+  private void updateDirty(Frame frame) {
+    frame.clearDirty();
+
+    if (prevSprites_ == null) {
+      prevSprites_        = new DrawList();
+      prevShieldVersions_ = new int [numBases_];
+
+      frame.fullRedraw_ = true;
+    }
+    else if (titleScreen_ != prevTitleScreen_ || gameOver_ != prevGameOver_) {
+      frame.fullRedraw_ = true;
+    }
+    else {
+      DrawList l1 = prevSprites_;
+      DrawList l2 = frame.sprites_;
+
+      int n = Math.max(l1.size(), l2.size());
+
+      for (int i = 0; i < n; ++i) {
+        if      (i >= l1.size()) frame.addDirty(l2, i);
+        else if (i >= l2.size()) frame.addDirty(l1, i);
+        else if (! l1.same(i, l2)) {
+          frame.addDirty(l1, i);
+          frame.addDirty(l2, i);
+        }
+      }
+
+      for (int i = 0; i < numBases_; ++i) {
+        Base base = bases_[i];
+
+        if (base.getVersion() != prevShieldVersions_[i])
+          frame.addDirty(base.x1(), base.y1(), base.x2() + 1, base.y2() + 1);
+      }
+
+      frame.hudChanged_ = (frame.score_ != prevScore_ || frame.lives_ != prevLives_ ||
+                           frame.level_ != prevLevel_);
+    }
+
+    prevSprites_.copyFrom(frame.sprites_);
+
+    for (int i = 0; i < numBases_; ++i)
+      prevShieldVersions_[i] = bases_[i].getVersion();
+
+    prevTitleScreen_ = titleScreen_;
+    prevGameOver_    = gameOver_;
+    prevScore_       = frame.score_;
+    prevLives_       = frame.lives_;
+    prevLevel_       = frame.level_;
+  }
+
+  // start of tick positions, for render interpolation
+  private void savePos() {
+    entities_.savePos();
+
+    alienMgr_.savePos();
+  }
+
+  void draw(DrawList l) {
+    l.clear();
+
+    if (titleScreen_) return;
+
+    player_.draw(l);
+
+    alienMgr_.drawAliens(l);
+
+    for (int i = 0; i < numBases_; ++i) bases_[i].draw(l);
+
+    alienMgr_.drawBullets(l);
+
+    mysteryAlien_.draw(l);
+  }
+
+  public void update() {
+    ++tick_;
+
+    savePos();
+
+    applyInput();
+
+    if (inputLog_ != null)
+      inputLog_.setNumTicks(tick_);
+
+    if (titleScreen_ || paused_ || gameOver_) {
+      dispatchEvents();
+
+      return;
+    }
+
+    Profiler prof = profiler_;
+
+    long t0 = (prof != null ? System.nanoTime() : 0), t = t0;
+
+    collideTime_ = 0;
+
+    player_.update();
+
+    if (prof != null) t = prof.mark(Profiler.PLAYER, t);
+
+    alienMgr_.preUpdate();
+
+    alienMgr_.updateAliens();
+
+    if (prof != null) t = prof.mark(Profiler.ALIENS, t);
+
+    alienMgr_.postUpdate();
+
+    if (prof != null) t = prof.mark(Profiler.ALIEN_POST, t);
+
+    alienMgr_.update();
+
+    if (prof != null) t = prof.mark(Profiler.ALIEN_BULLETS, t);
+
+    mysteryAlien_.update();
+
+    if (mysteryAlien_.isDead()) {
+      if (random() < alienMgr_.getMysteryChance())
+        mysteryAlien_.appear();
+    }
+
+    if (prof != null) t = prof.mark(Profiler.MYSTERY, t);
+
+    dispatchEvents();
+
+    if (prof != null) {
+      t = prof.mark(Profiler.EVENTS, t);
+
+      prof.record(Profiler.COLLIDE, collideTime_);
+      prof.record(Profiler.TICK   , t - t0);
+    }
+  }
+
+  //--------------
+
+  // Gameplay code only changes state and publishes what happened, the
+  // side effects (score, sounds, listeners) are applied from the events
+  // once per tick. Score is state, but nothing in the tick reads it.
+
+  private static final int EVENTS_SIZE = 256;
+
+  /** Also pass each tick's events to consumer (see GameEvents). */
+  public void addEventConsumer(GameEvents.Consumer consumer) {
+    if (numConsumers_ >= consumers_.length)
+      consumers_ = Arrays.copyOf(consumers_, 2*consumers_.length);
+
+    consumers_[numConsumers_++] = consumer;
+  }
+
+  void publish(int type, int x, int y, int value) {
+    // full (never in normal play), hand over what we have
+    if (! events_.add(type, x, y, value)) {
+      dispatchEvents();
+
+      events_.add(type, x, y, value);
+    }
+  }
+
+  private void dispatchEvents() {
+    GameEvents events = events_;
+
+    if (events.isEmpty()) return;
+
+    for (int i = 0; i < events.size(); ++i) {
+      int type = events.type(i);
+
+      if (type == GameEvents.ALIEN_KILLED || type == GameEvents.MYSTERY_KILLED)
+        score_.add(events.value(i));
+    }
+
+    if (listener_ != null) {
+      // several of the same sound in a tick play once
+      if (events.count(GameEvents.SHOT_FIRED) > 0)
+        listener_.playSound(Sound.SHOOT);
+
+      if (events.count(GameEvents.ALIEN_KILLED) + events.count(GameEvents.MYSTERY_KILLED) > 0)
+        listener_.playSound(Sound.INVADER_KILLED);
+
+      if (events.count(GameEvents.PLAYER_HIT) > 0)
+        listener_.playSound(Sound.EXPLOSION);
+
+      if (events.count(GameEvents.GAME_ENDED) > 0)
+        listener_.gameEnded(getScore(), getLevel());
+    }
+
+    for (int i = 0; i < numConsumers_; ++i)
+      consumers_[i].consume(events, tick_);
+
+    events.clear();
+  }
+
+  //--------------
+
+  // Input from the UI thread is queued here (see InputQueue) and drained,
+  // applied and logged at the start of the next tick, so only the tick
+  // thread changes game state and a run only depends on the seed and the
+  // per tick input.
+
+  // command encoding: op in bits 0-1, InputLog flags in 2-7, signed
+  // argument (ship steps or held direction) above
+  private static final int OP_INPUT = 0;
+  private static final int OP_HOLD  = 1;
+
+  private static final int INPUT_QUEUE_SIZE = 64;
+
+  /** Queue InputLog flags and ship steps (negative is left) for the next
+   *  tick. Callers must all be on one thread (the UI thread, or the tick
+   *  thread itself for tools), returns false if the queue is full. */
+  public boolean input(int flags, int move) {
+    return inputQueue_.offer(OP_INPUT | flags << 2 | move << 8);
+  }
+
+  /** Move the ship at a steady rate each tick while dir (-1 left, 1 right)
+   *  is held, 0 to stop. Same threading as input(). */
+  public boolean hold(int dir) {
+    return inputQueue_.offer(OP_HOLD | Integer.signum(dir) << 8);
+  }
+
+  /** Leave the title screen and start playing. */
+  public void start() { input(InputLog.START, 0); }
+
+  /** Handle the back key, returns false if the app should handle it.
+   *  Reads the title screen state, so call it from the tick thread (the
+   *  view checks its last frame and uses input(InputLog.BACK, 0)). */
+  public boolean back() {
+    if (titleScreen_) return false;
+
+    input(InputLog.BACK, 0);
+
+    return true;
+  }
+
+  public void moveShipLeft () { input(0, -1); }
+  public void moveShipRight() { input(0,  1); }
+
+  public void shipFire() { input(InputLog.FIRE, 0); }
+
+  public void pause() { input(InputLog.PAUSE, 0); }
+
+  private void applyInput() {
+    int flags = 0, move = 0;
+
+    for (int c = inputQueue_.poll(); c != InputQueue.EMPTY; c = inputQueue_.poll()) {
+      if ((c & 3) == OP_HOLD) {
+        hold_    = c >> 8;
+        holdRem_ = 0;
+      }
+      else {
+        flags |= (c >> 2) & 0x3F;
+        move  += c >> 8;
+      }
+    }
+
+    if ((flags & InputLog.START) != 0) doStart();
+    if ((flags & InputLog.BACK ) != 0) doBack();
+    if ((flags & InputLog.PAUSE) != 0) doPause();
+
+    boolean playing = ! (titleScreen_ || paused_ || gameOver_);
+
+    // held direction is logged as plain steps so replays don't need it
+    if (playing)
+      move += hold_*holdSteps();
+
+    move = Math.max(-127, Math.min(move, 127));
+
+    if (flags == 0 && move == 0) return;
+
+    if (inputLog_ != null)
+      inputLog_.add(tick_, flags, move);
+
+    if (! playing) return;
+
+    for (; move < 0; ++move) player_.moveLeft ();
+    for (; move > 0; --move) player_.moveRight();
+
+    if ((flags & InputLog.FIRE) != 0)
+      player_.fire();
+  }
+
+  // move inputs due this tick while a direction is held, the fraction of
+  // a step left over carries over
+  private int holdSteps() {
+    if (hold_ == 0) return 0;
+
+    int steps = (holdRem_ + player_.HOLD_RATE)/tickRate_;
+
+    holdRem_ += player_.HOLD_RATE - steps*tickRate_;
+
+    return steps;
+  }
+
+  private void doStart() {
+    if (! titleScreen_) return;
+
+    titleScreen_ = false;
+
+    newGame();
+  }
+
+  private void doBack() {
+    if      (titleScreen_) {
+      return;
+    }
+    else if (gameOver_) {
+      titleScreen_ = true;
+    }
+    else {
+      if (! paused_)
+        doPause();
+      else {
+        // abandoned, its score still counts
+        titleScreen_ = true;
+
+        publish(GameEvents.GAME_ENDED, 0, 0, 0);
+      }
+    }
+  }
+
+  private void doPause() {
+    paused_ = ! paused_;
+  }
+
+  //--------------
+
+  void addBase(Point pos) {
+    bases_[numBases_] = new Base(numBases_, pos);
+
+    ++numBases_;
+  }
+
+  // hit checks are spread over the phases, their time is summed into
+  // collideTime_ when profiling
+
+  void checkAlienHit(int bullet) {
+    Profiler prof = profiler_;
+
+    long t = (prof != null ? System.nanoTime() : 0);
+
+    alienMgr_.checkAlienHit(bullet);
+
+    alienMgr_.checkHit(bullet);
+
+    mysteryAlien_.checkHit(bullet);
+
+    if (prof != null) collideTime_ += System.nanoTime() - t;
+  }
+
+  void checkPlayerHit(int bullet) {
+    Profiler prof = profiler_;
+
+    long t = (prof != null ? System.nanoTime() : 0);
+
+    player_.checkHit(bullet);
+
+    if (prof != null) collideTime_ += System.nanoTime() - t;
+  }
+
+  void checkBaseHit(int bullet) {
+    Profiler prof = profiler_;
+
+    long t = (prof != null ? System.nanoTime() : 0);
+
+    baseIndex_.checkHit(bullet);
+
+    if (prof != null) collideTime_ += System.nanoTime() - t;
+  }
+
+  void checkBaseHit(int x1, int y1, int x2, int y2) {
+    Profiler prof = profiler_;
+
+    long t = (prof != null ? System.nanoTime() : 0);
+
+    baseIndex_.checkHit(x1, y1, x2, y2);
+
+    if (prof != null) collideTime_ += System.nanoTime() - t;
+  }
+
+  void gameOver() {
+    if (gameOver_) return;
+
+    gameOver_ = true;
+
+    publish(GameEvents.GAME_ENDED, 0, 0, 0);
+  }
+
+  public boolean isTitleScreen() { return titleScreen_; }
+
+  public boolean isPaused() { return paused_; }
+
+  public boolean isGameOver() { return gameOver_; }
+
+  public int getScore() { return score_.value(); }
+
+  public int getLives() { return player_.getLives(); }
+
+  public int getLevel() {
+    return level_.value();
+  }
+
+  public int getNumAliens() { return alienMgr_.getNumAliens(); }
+
+  void nextLevel() {
+    paused_   = false;
+    gameOver_ = false;
+
+    level_.next();
+
+    alienMgr_.reset();
+
+    mysteryAlien_.reset();
+
+    publish(GameEvents.WAVE_CLEARED, 0, 0, getLevel());
+  }
+
+  public void restart() {
+    if (! paused_ && ! gameOver_) return;
+
+    newGame();
+  }
+
+  // level 1 with the first wave's formation and speed
+  private void newGame() {
+    paused_   = false;
+    gameOver_ = false;
+
+    level_.reset();
+
+    score_.reset();
+
+    player_.reset();
+
+    for (int i = 0; i < numBases_; ++i) bases_[i].reset();
+
+    alienMgr_.reset();
+  }
+
+  //--------------
+
+  // Saved game format (DataOutput):
+  //
+  //   int SAVE_MAGIC, byte SAVE_VERSION, long seed, short tick rate, long tick,
+  //   long generator state, byte title/paused/game over flags, short level,
+  //   int score, then the player, formation, entities and bases (see
+  //   their save methods)
+  //
+  // Version 3 has the formation speed in a short. Version 2 also has no
+  // tick rate (the game ran at TICK_RATE), pixel fractions or last
+  // formation move, and the formation speed is per tick.
+  private static final int  SAVE_MAGIC   = 0x41495356; // "AISV"
+  private static final byte SAVE_VERSION = 4;
+
+  /** Write everything needed to continue the game exactly from the end of
+   *  the last tick (not the held direction, which belongs to the finger, or
+   *  the listener, log and profiler). Call on the tick thread. */
+  public void saveState(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+
+    out.writeInt  (SAVE_MAGIC);
+    out.writeByte (SAVE_VERSION);
+    out.writeLong (seed_);
+    out.writeShort(tickRate_);
+    out.writeLong (tick_);
+    out.writeLong (rand_);
+    out.writeByte ((titleScreen_ ? 1 : 0) | (paused_ ? 2 : 0) | (gameOver_ ? 4 : 0));
+    out.writeShort(getLevel());
+    out.writeInt  (getScore());
+
+    player_   .save(out);
+    alienMgr_ .save(out);
+    entities_ .save(out);
+
+    out.writeByte(numBases_);
+
+    for (int i = 0; i < numBases_; ++i)
+      bases_[i].save(out);
+
+    out.flush();
+  }
+
+  /** Game continuing from state written by saveState(). */
+  public static Game restoreState(InputStream is) throws IOException {
+    return restoreState(is, Waves.DEFAULT);
+  }
+
+  /** Game continuing from state written by saveState() by a game playing
+   *  waves. */
+  public static Game restoreState(InputStream is, Waves waves) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+
+    if (in.readInt() != SAVE_MAGIC)
+      throw new IOException("Not a saved game");
+
+    int version = in.readByte();
+
+    if (version < 2 || version > SAVE_VERSION)
+      throw new IOException("Unsupported saved game version " + version);
+
+    long seed     = in.readLong();
+    int  tickRate = (version > 2 ? in.readShort() : TICK_RATE);
+
+    if (tickRate < 1 || tickRate > MAX_TICK_RATE)
+      throw new IOException("Bad tick rate " + tickRate);
+
+    Game game = new Game(seed, waves, tickRate);
+
+    game.restore(in, version);
+
+    return game;
+  }
+
+  private void restore(DataInputStream in, int version) throws IOException {
+    tick_ = in.readLong();
+    rand_ = in.readLong() & RAND_MASK;
+
+    int flags = in.readByte();
+
+    titleScreen_ = ((flags & 1) != 0);
+    paused_      = ((flags & 2) != 0);
+    gameOver_    = ((flags & 4) != 0);
+
+    level_.reset();
+
+    for (int level = in.readShort(); getLevel() < level; )
+      level_.next();
+
+    score_.reset();
+
+    score_.add(in.readInt());
+
+    // the level's layout, which the saved formation state goes with
+    alienMgr_.setWave(waves_.forLevel(getLevel()));
+
+    player_   .restore(in);
+    alienMgr_ .restore(in, version);
+    entities_ .restore(in, version);
+
+    if (in.readUnsignedByte() != numBases_)
+      throw new IOException("Saved shields don't match");
+
+    for (int i = 0; i < numBases_; ++i)
+      bases_[i].restore(in);
+
+    // next snapshot redraws everything
+    prevSprites_ = null;
+  }
+
+  /** Start a fresh game at the specified level (benchmarks/tools). */
+  public void startLevel(int level) {
+    titleScreen_ = false;
+
+    newGame();
+
+    while (getLevel() < level)
+      level_.next();
+
+    alienMgr_.reset();
+
+    mysteryAlien_.reset();
+  }
+
+  /** Index of the first alien the rectangle would hit, or -1, using the
+   *  grid lookup or, if bruteForce, testing every alien (tools). */
+  public int findAlienHit(int x1, int y1, int x2, int y2, boolean bruteForce) {
+    if (bruteForce)
+      return alienMgr_.findHitBruteForce(x1, y1, x2, y2);
+    else
+      return alienMgr_.findHit(x1, y1, x2, y2);
+  }
+
+  // Read only state for players and checks, which would otherwise have
+  // to snapshot (publishing a frame) to see it. Positions are centres.
+
+  /** Ship x, or -1 unless it is in play. */
+  public int getShipX() {
+    int ship = player_.getShip();
+
+    return (! titleScreen_ && entities_.isAlive(ship) ? entities_.x(ship) : -1);
+  }
+
+  public int getNumAlienBullets() { return alienMgr_.NUM_BULLETS; }
+
+  public boolean isAlienBulletAlive(int i) {
+    return entities_.isAlive(alienMgr_.getBullet(i));
+  }
+
+  public int getAlienBulletX(int i) { return entities_.x(alienMgr_.getBullet(i)); }
+  public int getAlienBulletY(int i) { return entities_.y(alienMgr_.getBullet(i)); }
+
+  /** Alien i (0 to getNumAliens() - 1) is alive, not dead or exploding. */
+  public boolean isAlienAlive(int i) { return alienMgr_.isAlive(i); }
+
+  public int getAlienX(int i) { return alienMgr_.getX(i); }
+  public int getAlienY(int i) { return alienMgr_.getY(i); }
+
+  /** Kill all but the first n aliens of the formation (benchmarks/tools). */
+  public void thinFormation(int n) {
+    alienMgr_.thin(n);
+  }
+
+  /** Ticks (at least one) lasting about millis at tickRate. */
+  static int ticks(int millis, int tickRate) {
+    return Math.max(1, (millis*tickRate + 500)/1000);
+  }
+
+  //--------------
+
+  // same sequence as java.util.Random(seed).nextDouble(), inlined so the
+  // generator state can be saved
+  double random() {
+    return (((long) nextBits(26) << 27) + nextBits(27))*0x1.0p-53;
+  }
+
+  private int nextBits(int bits) {
+    rand_ = (rand_*RAND_MULT + 0xBL) & RAND_MASK;
+
+    return (int) (rand_ >>> (48 - bits));
+  }
+
+  //--------------
+
+  private long    seed_;
+  private Waves   waves_;
+  private int     tickRate_;
+  private boolean swept_; // rate independent rules (not at TICK_RATE)
+  private long    rand_;  // 48 bit generator state (see random())
+
+  private long tick_;
+
+  // input for the next tick (see applyInput)
+  private InputQueue inputQueue_;
+  private int        hold_;    // held direction (tick thread)
+  private int        holdRem_; // fraction of a step (1/tickRate_ steps)
+  private InputLog   inputLog_;
+
+  private volatile Profiler profiler_;
+  private long              collideTime_;
+
+  // previous snapshot (for dirty region)
+  private DrawList prevSprites_;
+  private int      prevShieldVersions_[];
+  private boolean  prevTitleScreen_;
+  private boolean  prevGameOver_;
+  private int      prevScore_;
+  private int      prevLives_;
+  private int      prevLevel_;
+
+  private GameListener listener_;
+
+  private GameEvents          events_;
+  private GameEvents.Consumer consumers_[];
+  private int                 numConsumers_;
+
+  private Entities      entities_;
+  private Player        player_;
+  private Level         level_;
+  private Score         score_;
+  private AlienManager  alienMgr_;
+  private MysteryAlien  mysteryAlien_;
+  private Base          bases_[];
+  private int           numBases_;
+  private BaseIndex     baseIndex_;
+  private boolean       titleScreen_;
+  private boolean       paused_;
+  private boolean       gameOver_;
+}
@@ -0,0 +1,94 @@
+package colinw.org.space_invaders.core;
+
+/** Preallocated ring buffer of typed gameplay events.
+ *
+ *  Game code publishes events as things happen in the tick (hits, shots,
+ *  the wave clearing) instead of calling side effects directly. Once per
+ *  tick the game hands all of the tick's events to each Consumer as one
+ *  batch and then drops them. Events are stored in parallel int arrays,
+ *  so publishing never allocates.
+ *
+ *  Batch accessors index the events of the current batch in publish
+ *  order. Tick thread only. */
+public class GameEvents {
+  public static final int SHOT_FIRED     = 0; // x, y of the bullet
+  public static final int ALIEN_KILLED   = 1; // x, y, value is the points
+  public static final int MYSTERY_KILLED = 2; // x, y, value is the points
+  public static final int PLAYER_HIT     = 3; // x, y, value is lives left
+  public static final int WAVE_CLEARED   = 4; // value is the new level
+  public static final int GAME_ENDED     = 5; // game over or left from pause
+
+  public static final int NUM_TYPES = 6;
+
+  public static final String NAMES[] = {
+    "shot fired", "alien killed", "mystery killed", "player hit", "wave cleared",
+    "game ended"
+  };
+
+  /** Receives each tick's events (on the tick thread). */
+  public interface Consumer {
+    void consume(GameEvents events, long tick);
+  }
+
+  /** Buffer of capacity events (rounded up to a power of 2). */
+  public GameEvents(int capacity) {
+    int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+    type_  = new int [n];
+    x_     = new int [n];
+    y_     = new int [n];
+    value_ = new int [n];
+    mask_  = n - 1;
+    head_  = 0;
+    tail_  = 0;
+    count_ = new int [NUM_TYPES];
+  }
+
+  /** Number of events in the batch. */
+  public int size() { return tail_ - head_; }
+
+  public boolean isEmpty() { return tail_ == head_; }
+
+  public int type (int i) { return type_ [(head_ + i) & mask_]; }
+  public int x    (int i) { return x_    [(head_ + i) & mask_]; }
+  public int y    (int i) { return y_    [(head_ + i) & mask_]; }
+  public int value(int i) { return value_[(head_ + i) & mask_]; }
+
+  /** Number of events of type in the batch. */
+  public int count(int type) { return count_[type]; }
+
+  /** Add an event, returns false if the buffer is full. */
+  boolean add(int type, int x, int y, int value) {
+    if (tail_ - head_ > mask_) return false;
+
+    int i = tail_ & mask_;
+
+    type_ [i] = type;
+    x_    [i] = x;
+    y_    [i] = y;
+    value_[i] = value;
+
+    ++tail_;
+
+    ++count_[type];
+
+    return true;
+  }
+
+  /** Drop the batch (after every consumer has seen it). */
+  void clear() {
+    head_ = tail_;
+
+    for (int t = 0; t < NUM_TYPES; ++t)
+      count_[t] = 0;
+  }
+
+  private int type_[];
+  private int x_[];
+  private int y_[];
+  private int value_[];
+  private int mask_;
+  private int head_;
+  private int tail_;
+  private int count_[];
+}
@@ -0,0 +1,10 @@
+package colinw.org.space_invaders.core;
+
+/** Side effects requested by the game core, called once per tick from
+ *  its events (see GameEvents), so a sound is played at most once a tick. */
+public interface GameListener {
+  void playSound(int sound);
+
+  /** Game over (or a game left from pause), called once per game. */
+  void gameEnded(int score, int level);
+}
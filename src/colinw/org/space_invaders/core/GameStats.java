@@ -0,0 +1,46 @@
+package colinw.org.space_invaders.core;
+
+/** Event consumer totalling what happened over one or more games (shots,
+ *  kills, hits, waves and points), for play statistics. */
+public class GameStats implements GameEvents.Consumer {
+  public GameStats() {
+    counts_ = new long [GameEvents.NUM_TYPES];
+    points_ = 0;
+  }
+
+  public void consume(GameEvents events, long tick) {
+    for (int t = 0; t < GameEvents.NUM_TYPES; ++t)
+      counts_[t] += events.count(t);
+
+    for (int i = 0; i < events.size(); ++i) {
+      int type = events.type(i);
+
+      if (type == GameEvents.ALIEN_KILLED || type == GameEvents.MYSTERY_KILLED)
+        points_ += events.value(i);
+    }
+  }
+
+  /** Number of events of type seen. */
+  public long count(int type) { return counts_[type]; }
+
+  /** Points scored by kills. */
+  public long points() { return points_; }
+
+  /** Kills (aliens and mystery ships) per shot fired. */
+  public double accuracy() {
+    long shots = counts_[GameEvents.SHOT_FIRED];
+    long kills = counts_[GameEvents.ALIEN_KILLED] + counts_[GameEvents.MYSTERY_KILLED];
+
+    return (shots > 0 ? (double) kills/shots : 0);
+  }
+
+  public void add(GameStats stats) {
+    for (int t = 0; t < GameEvents.NUM_TYPES; ++t)
+      counts_[t] += stats.counts_[t];
+
+    points_ += stats.points_;
+  }
+
+  private long counts_[];
+  private long points_;
+}
@@ -0,0 +1,298 @@
+package colinw.org.space_invaders.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/** Table of the best scores, kept in memory and backed by an append-only
+ *  file of fixed size, checksummed records.
+ *
+ *  Every finished game is appended as a SCORE record. Every
+ *  CHECKPOINT_EVERY scores the current table is appended as TOP records
+ *  closed by a TOP_END record, so open() only reads back from the end of
+ *  the file to the last complete checkpoint rather than the whole
+ *  history. A record left partly written by a crash fails its checksum
+ *  (or is short) and is cut off when the file is next opened.
+ *
+ *  add() only updates the table and queues the write, the file is written
+ *  and synced on a background thread, so it is safe to call from the tick
+ *  thread. The table may be read from any thread.
+ *
+ *  File format (big endian):
+ *
+ *    int MAGIC, int VERSION
+ *    records: long time (ms), int score, int level (TOP_END: number of
+ *             TOP records before it), int type, int CRC32 of the first 20
+ *             bytes
+ */
+public class HighScores {
+  private static final int MAGIC   = 0x41494853; // "AIHS"
+  private static final int VERSION = 1;
+
+  private static final int HEADER = 8;
+  private static final int RECORD = 24;
+
+  private static final int SCORE   = 1;
+  private static final int TOP     = 2;
+  private static final int TOP_END = 3;
+
+  private static final int CHECKPOINT_EVERY = 32;
+
+  /** Open (or create) the store in file keeping the best size scores.
+   *  Does file IO, so call it off the UI thread. */
+  public static HighScores open(File file, int size) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try {
+      HighScores scores = new HighScores(raf, size);
+
+      scores.load();
+
+      return scores;
+    }
+    catch (IOException e) {
+      raf.close();
+
+      throw e;
+    }
+  }
+
+  private HighScores(RandomAccessFile raf, int size) {
+    file_            = raf;
+    score_           = new int  [size];
+    level_           = new int  [size];
+    time_            = new long [size];
+    size_            = 0;
+    sinceCheckpoint_ = 0;
+    recordsRead_     = 0;
+    writer_          = Executors.newSingleThreadExecutor();
+    error_           = null;
+  }
+
+  /** Number of scores in the table (at most the size it was opened with). */
+  public synchronized int size() { return size_; }
+
+  /** Score, level and time (ms) of entry i, best first. */
+  public synchronized int  score(int i) { return score_[i]; }
+  public synchronized int  level(int i) { return level_[i]; }
+  public synchronized long time (int i) { return time_ [i]; }
+
+  /** Best score, or 0 if none. */
+  public synchronized int best() { return (size_ > 0 ? score_[0] : 0); }
+
+  /** Records read by open() (to show it stopped at the last checkpoint). */
+  public int recordsRead() { return recordsRead_; }
+
+  /** Last write error, or null. */
+  public IOException error() { return error_; }
+
+  /** Record a finished game. Returns its place in the table (0 is best)
+   *  or -1 if it didn't make it. Never waits for the file. */
+  public int add(int score, int level, long time) {
+    final ByteBuffer buf;
+    int              rank;
+
+    synchronized (this) {
+      rank = insert(score, level, time);
+
+      boolean checkpoint = (++sinceCheckpoint_ >= CHECKPOINT_EVERY);
+
+      buf = ByteBuffer.allocate(RECORD*(1 + (checkpoint ? size_ + 1 : 0)));
+
+      putRecord(buf, time, score, level, SCORE);
+
+      if (checkpoint) {
+        for (int i = 0; i < size_; ++i)
+          putRecord(buf, time_[i], score_[i], level_[i], TOP);
+
+        putRecord(buf, time, 0, size_, TOP_END);
+
+        sinceCheckpoint_ = 0;
+      }
+    }
+
+    writer_.execute(new Runnable() {
+      @Override
+      public void run() {
+        append(buf.array());
+      }
+    });
+
+    return rank;
+  }
+
+  /** Finish queued writes and close the file. */
+  public void close() throws IOException {
+    writer_.shutdown();
+
+    try {
+      writer_.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    file_.close();
+
+    if (error_ != null)
+      throw error_;
+  }
+
+  //--------------
+
+  // writer thread only
+  private void append(byte data[]) {
+    try {
+      file_.seek(file_.length());
+
+      file_.write(data);
+
+      file_.getFD().sync();
+    }
+    catch (IOException e) {
+      error_ = e;
+    }
+  }
+
+  // read back from the end of the file to the last complete checkpoint,
+  // cutting off any torn records at the end
+  private void load() throws IOException {
+    long length = file_.length();
+
+    if (length < HEADER) {
+      file_.setLength(0);
+
+      file_.writeInt(MAGIC);
+      file_.writeInt(VERSION);
+
+      return;
+    }
+
+    if (file_.readInt() != MAGIC)
+      throw new IOException("Not a high score file");
+
+    int version = file_.readInt();
+
+    if (version != VERSION)
+      throw new IOException("Unsupported high score file version " + version);
+
+    long end = HEADER + (length - HEADER)/RECORD*RECORD;
+
+    ByteBuffer buf = ByteBuffer.allocate(RECORD);
+
+    // torn tail
+    while (end > HEADER && ! readRecord(buf, end - RECORD))
+      end -= RECORD;
+
+    if (end < length)
+      file_.setLength(end);
+
+    for (long pos = end; pos > HEADER; pos -= RECORD) {
+      if (! readRecord(buf, pos - RECORD)) continue;
+
+      int type = buf.getInt(16);
+
+      if      (type == SCORE) {
+        insert(buf.getInt(8), buf.getInt(12), buf.getLong(0));
+
+        ++sinceCheckpoint_;
+      }
+      else if (type == TOP_END && readCheckpoint(buf, pos - RECORD, buf.getInt(12)))
+        break;
+    }
+  }
+
+  // add the n TOP records before end, returns false (adding nothing) if
+  // any is bad
+  private boolean readCheckpoint(ByteBuffer buf, long end, int n) throws IOException {
+    if (n < 0 || end - (long) n*RECORD < HEADER) return false;
+
+    int  scores[] = new int  [n];
+    int  levels[] = new int  [n];
+    long times [] = new long [n];
+
+    for (int i = 0; i < n; ++i) {
+      if (! readRecord(buf, end - (long) (n - i)*RECORD) || buf.getInt(16) != TOP)
+        return false;
+
+      times [i] = buf.getLong(0);
+      scores[i] = buf.getInt(8);
+      levels[i] = buf.getInt(12);
+    }
+
+    for (int i = 0; i < n; ++i)
+      insert(scores[i], levels[i], times[i]);
+
+    return true;
+  }
+
+  // read the record at pos into buf, returns false if its checksum fails
+  private boolean readRecord(ByteBuffer buf, long pos) throws IOException {
+    file_.seek(pos);
+
+    file_.readFully(buf.array());
+
+    ++recordsRead_;
+
+    CRC32 crc = new CRC32();
+
+    crc.update(buf.array(), 0, RECORD - 4);
+
+    return (int) crc.getValue() == buf.getInt(RECORD - 4);
+  }
+
+  private static void putRecord(ByteBuffer buf, long time, int score, int level, int type) {
+    int start = buf.position();
+
+    buf.putLong(time);
+    buf.putInt (score);
+    buf.putInt (level);
+    buf.putInt (type);
+
+    CRC32 crc = new CRC32();
+
+    crc.update(buf.array(), start, RECORD - 4);
+
+    buf.putInt((int) crc.getValue());
+  }
+
+  // place the score in the table (higher score first, then earlier time),
+  // returns its index or -1 if it didn't make it
+  private int insert(int score, int level, long time) {
+    int i = size_;
+
+    while (i > 0 && (score_[i - 1] < score || (score_[i - 1] == score && time_[i - 1] > time)))
+      --i;
+
+    if (i >= score_.length) return -1;
+
+    int n = Math.min(size_, score_.length - 1) - i;
+
+    System.arraycopy(score_, i, score_, i + 1, n);
+    System.arraycopy(level_, i, level_, i + 1, n);
+    System.arraycopy(time_ , i, time_ , i + 1, n);
+
+    score_[i] = score;
+    level_[i] = level;
+    time_ [i] = time;
+
+    size_ = Math.min(size_ + 1, score_.length);
+
+    return i;
+  }
+
+  private RandomAccessFile     file_;
+  private int                  score_[];
+  private int                  level_[];
+  private long                 time_[];
+  private int                  size_;
+  private int                  sinceCheckpoint_;
+  private int                  recordsRead_;
+  private ExecutorService      writer_;
+  private volatile IOException error_;
+}
@@ -0,0 +1,99 @@
+package colinw.org.space_invaders.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Log-linear histogram of durations (or any non negative long), with 8
+ *  sub buckets per power of two so percentiles are within 12.5%.
+ *
+ *  Lock free for one writer and any number of readers: the writer only
+ *  does plain increments published with lazySet (no CAS, no allocation),
+ *  readers may see a record partially applied but never block it. */
+public class Histogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB      = 1 << SUB_BITS;
+  private static final int LINEAR   = 2*SUB; // values below this are exact
+
+  private static final int NUM_BUCKETS = LINEAR + (63 - SUB_BITS - 1)*SUB;
+
+  // slots after the buckets
+  private static final int COUNT = NUM_BUCKETS;
+  private static final int SUM   = NUM_BUCKETS + 1;
+  private static final int MAX   = NUM_BUCKETS + 2;
+
+  public Histogram() {
+    data_ = new AtomicLongArray(NUM_BUCKETS + 3);
+  }
+
+  /** Add value (single writer thread only). */
+  public void record(long v) {
+    if (v < 0) v = 0;
+
+    int i = bucket(v);
+
+    data_.lazySet(i    , data_.get(i    ) + 1);
+    data_.lazySet(COUNT, data_.get(COUNT) + 1);
+    data_.lazySet(SUM  , data_.get(SUM  ) + v);
+
+    if (v > data_.get(MAX))
+      data_.lazySet(MAX, v);
+  }
+
+  public long count() { return data_.get(COUNT); }
+
+  public long max() { return data_.get(MAX); }
+
+  public double mean() {
+    long n = count();
+
+    return (n > 0 ? (double) data_.get(SUM)/n : 0);
+  }
+
+  /** Value at percentile p (0-100), the middle of the bucket it falls in. */
+  public long percentile(double p) {
+    long n = count();
+
+    if (n == 0) return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(p*n/100));
+    long seen = 0;
+
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      seen += data_.get(i);
+
+      if (seen >= rank)
+        return Math.min((lowest(i) + lowest(i + 1) - 1)/2, max());
+    }
+
+    return max();
+  }
+
+  /** Clear all counts (not safe against a concurrent record). */
+  public void reset() {
+    for (int i = 0; i < data_.length(); ++i)
+      data_.set(i, 0);
+  }
+
+  static int bucket(long v) {
+    if (v < LINEAR) return (int) v;
+
+    int e = 63 - Long.numberOfLeadingZeros(v); // e > SUB_BITS
+
+    int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+
+    return LINEAR + (e - SUB_BITS - 1)*SUB + sub;
+  }
+
+  // smallest value in bucket i
+  static long lowest(int i) {
+    if (i < LINEAR) return i;
+
+    int e   = (i - LINEAR)/SUB + SUB_BITS + 1;
+    int sub = (i - LINEAR)%SUB;
+
+    if (e > 62) return Long.MAX_VALUE;
+
+    return (long) (SUB + sub) << (e - SUB_BITS);
+  }
+
+  private AtomicLongArray data_;
+}
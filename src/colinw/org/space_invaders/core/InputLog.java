@@ -0,0 +1,251 @@
+package colinw.org.space_invaders.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/** Input applied on each tick of a session. Together with the game seed,
+ *  waves and tick rate this is enough to replay the session exactly (see
+ *  Replayer).
+ *
+ *  The entries are allocated up front so recording never allocates on the
+ *  tick thread. Once full the log stops at the last tick it has all the
+ *  input for (a replay ends there).
+ *
+ *  Only ticks with input are stored. Binary format (DataOutput):
+ *
+ *    int MAGIC, byte VERSION, long seed, int waves checksum,
+ *    short tick rate, long number of ticks
+ *    per entry: varint tick delta, byte flags, [byte move if MOVE flag]
+ *
+ *  Versions 1 and 2 have no tick rate (the game ran at Game.TICK_RATE)
+ *  and version 2 has the checksum the waves had with per tick chances
+ *  (Waves.tickChecksum), version 1 none (it played the built in waves).
+ *  They are read (and written) as they were, see hasTickWaves().
+ */
+public class InputLog {
+  public static final int FIRE  = 1;
+  public static final int START = 2;
+  public static final int PAUSE = 4;
+  public static final int BACK  = 8;
+
+  // entry has a move byte (net ship steps, negative is left)
+  private static final int MOVE = 16;
+
+  private static final int  MAGIC   = 0x41494c47; // "AILG"
+  private static final byte VERSION = 3;
+
+  /** Entries (ticks with input) kept unless another size is given. */
+  public static final int DEFAULT_SIZE = 1 << 16;
+
+  public InputLog(long seed) {
+    this(seed, Waves.DEFAULT.checksum());
+  }
+
+  /** Log of a game with seed playing the waves with the given checksum
+   *  (Waves.checksum). */
+  public InputLog(long seed, int waves) {
+    this(seed, waves, Game.TICK_RATE);
+  }
+
+  /** Log of a game as above running at tickRate. */
+  public InputLog(long seed, int waves, int tickRate) {
+    this(seed, waves, tickRate, DEFAULT_SIZE);
+  }
+
+  /** Log as above keeping at most maxSize entries. */
+  public InputLog(long seed, int waves, int tickRate, int maxSize) {
+    seed_      = seed;
+    waves_     = waves;
+    tickRate_  = tickRate;
+    numTicks_  = 0;
+    tick_      = new long [maxSize];
+    flags_     = new byte [maxSize];
+    move_      = new byte [maxSize];
+    size_      = 0;
+    full_      = false;
+    tickWaves_ = false;
+  }
+
+  public long seed() { return seed_; }
+
+  /** Checksum of the waves the session played. */
+  public int waves() { return waves_; }
+
+  public int tickRate() { return tickRate_; }
+
+  /** True if waves() is a Waves.tickChecksum (a version 1 or 2 log). */
+  public boolean hasTickWaves() { return tickWaves_; }
+
+  /** True if the session played waves. */
+  public boolean playedWaves(Waves waves) {
+    return waves_ == (tickWaves_ ? waves.tickChecksum() : waves.checksum());
+  }
+
+  /** Number of ticks the session ran for. */
+  public long numTicks() { return numTicks_; }
+
+  /** Number of ticks with input. */
+  public int size() { return size_; }
+
+  /** True if input was dropped because the log is full. */
+  public boolean isFull() { return full_; }
+
+  public long tick (int i) { return tick_[i]; }
+  public int  flags(int i) { return flags_[i]; }
+  public int  move (int i) { return move_[i]; }
+
+  void add(long tick, int flags, int move) {
+    if (full_) return;
+
+    // end the log before the tick whose input doesn't fit
+    if (size_ >= tick_.length) {
+      full_     = true;
+      numTicks_ = tick - 1;
+
+      return;
+    }
+
+    tick_ [size_] = tick;
+    flags_[size_] = (byte) flags;
+    move_ [size_] = (byte) move;
+
+    ++size_;
+  }
+
+  private void grow() {
+    int n = 2*tick_.length;
+
+    tick_  = Arrays.copyOf(tick_ , n);
+    flags_ = Arrays.copyOf(flags_, n);
+    move_  = Arrays.copyOf(move_ , n);
+  }
+
+  void setNumTicks(long numTicks) {
+    if (! full_) numTicks_ = numTicks;
+  }
+
+  public void write(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+
+    out.writeInt (MAGIC);
+    out.writeByte(tickWaves_ ? 2 : VERSION);
+    out.writeLong(seed_);
+    out.writeInt (waves_);
+
+    if (! tickWaves_)
+      out.writeShort(tickRate_);
+
+    out.writeLong(numTicks_);
+    out.writeInt (size_);
+
+    long last = 0;
+
+    for (int i = 0; i < size_; ++i) {
+      writeVarLong(out, tick_[i] - last);
+
+      last = tick_[i];
+
+      if (move_[i] != 0) {
+        out.writeByte(flags_[i] | MOVE);
+        out.writeByte(move_[i]);
+      }
+      else
+        out.writeByte(flags_[i]);
+    }
+
+    out.flush();
+  }
+
+  public static InputLog read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not an input log");
+
+    int version = in.readByte();
+
+    if (version < 1 || version > VERSION)
+      throw new IOException("Unsupported input log version " + version);
+
+    long seed     = in.readLong();
+    int  waves    = (version > 1 ? in.readInt() : Waves.DEFAULT.tickChecksum());
+    int  tickRate = (version > 2 ? in.readShort() : Game.TICK_RATE);
+
+    if (tickRate < 1 || tickRate > Game.MAX_TICK_RATE)
+      throw new IOException("Bad tick rate " + tickRate);
+
+    long numTicks = in.readLong();
+
+    int n = in.readInt();
+
+    if (n < 0 || n > numTicks)
+      throw new IOException("Bad input log size " + n);
+
+    // grown as read, so a bad size fails at the end of the file rather
+    // than allocating it all
+    InputLog log = new InputLog(seed, waves, tickRate, Math.min(n, DEFAULT_SIZE));
+
+    log.numTicks_  = numTicks;
+    log.tickWaves_ = (version < 3);
+
+    long tick = 0;
+
+    for (int i = 0; i < n; ++i) {
+      tick += readVarLong(in);
+
+      int flags = in.readByte();
+      int move  = ((flags & MOVE) != 0 ? in.readByte() : 0);
+
+      if (log.size_ >= log.tick_.length)
+        log.grow();
+
+      log.add(tick, flags & ~MOVE, move);
+    }
+
+    return log;
+  }
+
+  // 7 bits per byte, high bit set on all but the last byte
+  static void writeVarLong(DataOutputStream out, long v) throws IOException {
+    while ((v & ~0x7FL) != 0) {
+      out.writeByte((int) ((v & 0x7F) | 0x80));
+
+      v >>>= 7;
+    }
+
+    out.writeByte((int) v);
+  }
+
+  static long readVarLong(DataInputStream in) throws IOException {
+    long v     = 0;
+    int  shift = 0;
+
+    while (true) {
+      int b = in.readUnsignedByte();
+
+      v |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) return v;
+
+      shift += 7;
+
+      if (shift > 63)
+        throw new IOException("Bad tick delta");
+    }
+  }
+
+  private long    seed_;
+  private int     waves_;
+  private int     tickRate_;
+  private long    numTicks_;
+  private long    tick_[];
+  private byte    flags_[];
+  private byte    move_[];
+  private int     size_;
+  private boolean full_;
+  private boolean tickWaves_;
+}
@@ -0,0 +1,73 @@
+package colinw.org.space_invaders.core;
+
+/** Bounded single producer, single consumer ring buffer of int commands.
+ *
+ *  The producer (UI thread) only writes tail_, the consumer (tick thread)
+ *  only writes head_. A slot is written before the volatile tail_ store
+ *  that publishes it and read after the volatile tail_ load that sees it,
+ *  so no locks or CAS are needed. Each side caches the other's index and
+ *  only re-reads it when the buffer looks full or empty. */
+public class InputQueue {
+  /** Returned by poll() when there are no commands. */
+  public static final int EMPTY = Integer.MIN_VALUE;
+
+  /** Queue holding up to capacity commands (rounded up to a power of 2). */
+  public InputQueue(int capacity) {
+    int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+    buffer_ = new int [n];
+    mask_   = n - 1;
+
+    head_ = 0;
+    tail_ = 0;
+
+    cachedHead_ = 0;
+    cachedTail_ = 0;
+  }
+
+  /** Add command (producer thread only), returns false if the queue is
+   *  full and the command was dropped. */
+  public boolean offer(int command) {
+    long tail = tail_;
+
+    if (tail - cachedHead_ > mask_) {
+      cachedHead_ = head_;
+
+      if (tail - cachedHead_ > mask_) return false;
+    }
+
+    buffer_[(int) tail & mask_] = command;
+
+    tail_ = tail + 1;
+
+    return true;
+  }
+
+  /** Remove the oldest command (consumer thread only), or EMPTY. */
+  public int poll() {
+    long head = head_;
+
+    if (head >= cachedTail_) {
+      cachedTail_ = tail_;
+
+      if (head >= cachedTail_) return EMPTY;
+    }
+
+    int command = buffer_[(int) head & mask_];
+
+    head_ = head + 1;
+
+    return command;
+  }
+
+  public int capacity() { return buffer_.length; }
+
+  private final int buffer_[];
+  private final int mask_;
+
+  private volatile long head_; // next slot to read  (consumer)
+  private volatile long tail_; // next slot to write (producer)
+
+  private long cachedHead_; // producer's copy of head_
+  private long cachedTail_; // consumer's copy of tail_
+}
@@ -0,0 +1,73 @@
+package colinw.org.space_invaders.core;
+
+import java.io.PrintStream;
+
+/** Per phase timing histograms (nanoseconds) for the tick and the draw.
+ *
+ *  Game only times its phases while a profiler is set (Game.setProfiler),
+ *  otherwise the cost is a null check per phase. Each phase has a single
+ *  writer thread: the tick thread for the game phases, the UI thread for
+ *  DRAW. */
+public class Profiler {
+  public static final int TICK          = 0; // whole Game.update
+  public static final int PLAYER        = 1; // player and player bullets
+  public static final int ALIENS        = 2; // formation move/animate/fire
+  public static final int ALIEN_POST    = 3; // row step, level end
+  public static final int ALIEN_BULLETS = 4;
+  public static final int MYSTERY       = 5;
+  public static final int COLLIDE       = 6; // all hit checks (within the above)
+  public static final int EVENTS        = 7; // dispatch to consumers
+  public static final int SNAPSHOT      = 8;
+  public static final int DRAW          = 9; // view onDraw
+
+  public static final int COUNT = 10;
+
+  public static final String NAMES[] = {
+    "tick", "player", "aliens", "alien post", "alien bullets", "mystery",
+    "collide", "events", "snapshot", "draw"
+  };
+
+  public Profiler() {
+    histograms_ = new Histogram [COUNT];
+
+    for (int i = 0; i < COUNT; ++i)
+      histograms_[i] = new Histogram();
+  }
+
+  public Histogram histogram(int phase) { return histograms_[phase]; }
+
+  public void record(int phase, long nanos) {
+    histograms_[phase].record(nanos);
+  }
+
+  /** Record the time from start to now for phase, returns now (so it can
+   *  start the next phase). */
+  public long mark(int phase, long start) {
+    long now = System.nanoTime();
+
+    histograms_[phase].record(now - start);
+
+    return now;
+  }
+
+  public void reset() {
+    for (int i = 0; i < COUNT; ++i)
+      histograms_[i].reset();
+  }
+
+  /** Print a table of count, mean, p50, p99 and max (microseconds). */
+  public void dump(PrintStream out) {
+    out.println(String.format("%-14s %10s %10s %10s %10s %10s",
+                              "phase", "count", "mean us", "p50 us", "p99 us", "max us"));
+
+    for (int i = 0; i < COUNT; ++i) {
+      Histogram h = histograms_[i];
+
+      out.println(String.format("%-14s %10d %10.1f %10.1f %10.1f %10.1f", NAMES[i],
+                                h.count(), h.mean()/1e3, h.percentile(50)/1e3,
+                                h.percentile(99)/1e3, h.max()/1e3));
+    }
+  }
+
+  private Histogram histograms_[];
+}
@@ -0,0 +1,98 @@
+package colinw.org.space_invaders.core;
+
+/** Renderer which records the last frame's draws and keeps draw counts,
+ *  so frame output and draw call numbers can be checked and benchmarked
+ *  on a plain JVM. */
+public class RecordingRenderer implements Renderer {
+  public RecordingRenderer() {
+    draws_       = new DrawList();
+    frames_      = 0;
+    totalDraws_  = 0;
+    maxDraws_    = 0;
+    totalBinds_  = 0;
+    totalBatch_  = 0;
+  }
+
+  public void begin() {
+    draws_.clear();
+  }
+
+  public void sprite(int sprite, int x, int y) {
+    draws_.add(sprite, x, y);
+  }
+
+  public void end() {
+    int n = draws_.size();
+
+    ++frames_;
+
+    totalDraws_ += n;
+    maxDraws_    = Math.max(maxDraws_, n);
+    totalBinds_ += binds();
+    totalBatch_ += batches();
+  }
+
+  /** Draws of the last frame, in order. */
+  public DrawList draws() { return draws_; }
+
+  public long frames() { return frames_; }
+
+  public long totalDraws() { return totalDraws_; }
+
+  public int maxDraws() { return maxDraws_; }
+
+  /** Bitmap changes drawing each sprite from its own bitmap (summed). */
+  public long totalBinds() { return totalBinds_; }
+
+  /** Draw batches (runs of draws from the same bitmap) with static sprites
+   *  in one atlas and each shield its own bitmap, in draw order (summed). */
+  public long totalBatches() { return totalBatch_; }
+
+  /** Hash of the last frame's draws. */
+  public long checksum() {
+    long h = draws_.size();
+
+    for (int i = 0; i < draws_.size(); ++i) {
+      h = (h ^ draws_.sprite(i))*0x100000001b3L;
+      h = (h ^ draws_.x     (i))*0x100000001b3L;
+      h = (h ^ draws_.y     (i))*0x100000001b3L;
+    }
+
+    return h;
+  }
+
+  private int binds() {
+    int n = 0, last = -1;
+
+    for (int i = 0; i < draws_.size(); ++i) {
+      if (draws_.sprite(i) != last) ++n;
+
+      last = draws_.sprite(i);
+    }
+
+    return n;
+  }
+
+  private int batches() {
+    int n = 0, last = -1;
+
+    for (int i = 0; i < draws_.size(); ++i) {
+      // every static sprite comes from the atlas (counted as COUNT)
+      int sprite = draws_.sprite(i);
+      int bitmap = (sprite >= Sprite.SHIELD ? sprite : Sprite.COUNT);
+
+      if (bitmap != last) ++n;
+
+      last = bitmap;
+    }
+
+    return n;
+  }
+
+  private DrawList draws_;
+  private long     frames_;
+  private long     totalDraws_;
+  private int      maxDraws_;
+  private long     totalBinds_;
+  private long     totalBatch_;
+}
@@ -0,0 +1,15 @@
+package colinw.org.space_invaders.core;
+
+/** Draws the sprites of a frame. Game draws into a DrawList on the tick
+ *  thread (so the frame can be handed over and interpolated), which is
+ *  then replayed into a Renderer with DrawList.render. */
+public interface Renderer {
+  /** Start of a frame. */
+  void begin();
+
+  /** Draw sprite (Sprite id) with its top left at x, y (game pixels). */
+  void sprite(int sprite, int x, int y);
+
+  /** End of the frame, anything batched must be drawn by now. */
+  void end();
+}
@@ -0,0 +1,60 @@
+package colinw.org.space_invaders.core;
+
+/** Replays an InputLog through a fresh Game with the log's seed and tick
+ *  rate, one tick per step() with no frame pacing, so a recorded session
+ *  (or bug report) can be reproduced and inspected tick by tick or run to
+ *  the end.
+ *
+ *  The waves must be the ones the session played (checked against the
+ *  log's waves checksum). */
+public class Replayer {
+  public Replayer(InputLog log) {
+    this(log, Waves.DEFAULT, null);
+  }
+
+  public Replayer(InputLog log, Waves waves) {
+    this(log, waves, null);
+  }
+
+  public Replayer(InputLog log, Waves waves, GameListener listener) {
+    if (! log.playedWaves(waves))
+      throw new IllegalArgumentException("Input log was recorded with different waves");
+
+    log_   = log;
+    game_  = new Game(log.seed(), waves, log.tickRate());
+    entry_ = 0;
+
+    game_.setListener(listener);
+  }
+
+  public Game game() { return game_; }
+
+  /** True when every logged tick has been replayed. */
+  public boolean isDone() { return game_.getTick() >= log_.numTicks(); }
+
+  /** Replay one tick, returns false if the log is already done. */
+  public boolean step() {
+    if (isDone()) return false;
+
+    long tick = game_.getTick() + 1;
+
+    if (entry_ < log_.size() && log_.tick(entry_) == tick) {
+      game_.input(log_.flags(entry_), log_.move(entry_));
+
+      ++entry_;
+    }
+
+    game_.update();
+
+    return true;
+  }
+
+  /** Replay the rest of the log. */
+  public void run() {
+    while (step()) { }
+  }
+
+  private InputLog log_;
+  private Game     game_;
+  private int      entry_;
+}
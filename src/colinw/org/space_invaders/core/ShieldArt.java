@@ -0,0 +1,60 @@
+package colinw.org.space_invaders.core;
+
+/** Shield art shared by every Base: the undamaged shape and the crater a
+ *  bullet blows out of it. Built once and never modified, each base only
+ *  owns its current (damaged) mask. */
+final class ShieldArt {
+  private ShieldArt() { }
+
+  static final int WIDTH  = 88;
+  static final int HEIGHT = 58;
+
+  // solid spans of the undamaged shield: first row, last row, first
+  // column, last column and (if any) first and last column of the arch
+  private static final int SHAPE_SPANS[][] = {
+    {  0,  3, 17, 69 },
+    {  4,  8, 13, 73 },
+    {  9, 12,  9, 77 },
+    { 13, 17,  4, 82 },
+    { 18, 38,  0, 86 },
+    { 39, 39,  0, 86, 31, 55 },
+    { 40, 43,  0, 86, 30, 56 },
+    { 44, 47,  0, 86, 26, 60 },
+    { 48, 56,  0, 86, 22, 64 },
+  };
+
+  // pixels removed from the shield around a bullet impact
+  private static final String CRATER_ROWS[] = {
+    "..#..#..#...",
+    "#..#.##..#..",
+    "..########.#",
+    ".##########.",
+    "############",
+    ".##########.",
+    "############",
+    ".##########.",
+    "..########..",
+    ".#.######.#.",
+    "#..#.##.#..#",
+    "..#..#...#..",
+  };
+
+  /** Undamaged shield. */
+  static final BitMask SHAPE = shape();
+
+  /** Pixels removed around an impact. */
+  static final BitMask CRATER = BitMask.parse(CRATER_ROWS);
+
+  private static BitMask shape() {
+    BitMask mask = new BitMask(WIDTH, HEIGHT);
+
+    for (int s[] : SHAPE_SPANS) {
+      mask.set(s[2], s[0], s[3], s[1]);
+
+      if (s.length > 4)
+        mask.clear(s[4], s[0], s[5], s[1]);
+    }
+
+    return mask;
+  }
+}
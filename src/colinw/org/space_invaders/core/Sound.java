@@ -0,0 +1,16 @@
+package colinw.org.space_invaders.core;
+
+/** Sound identifiers used by the game core. */
+public final class Sound {
+  private Sound() { }
+
+  public static final int SHOOT          = 0;
+  public static final int EXPLOSION      = 1;
+  public static final int INVADER_KILLED = 2;
+
+  public static final int COUNT = 3;
+
+  /** Voice priority of each sound (higher wins when all voices are busy):
+   *  player death above alien hit above player shot. */
+  public static final int PRIORITY[] = { 1, 3, 2 };
+}
@@ -0,0 +1,34 @@
+package colinw.org.space_invaders.core;
+
+/** Sprite identifiers used by the game core. The core only deals in these
+ *  ids, the view maps them onto decoded bitmaps (or, for shields, onto
+ *  bitmaps it builds from the shield masks). */
+public final class Sprite {
+  private Sprite() { }
+
+  public static final int PLAYER    = 0;
+  public static final int BULLET1   = 1;
+  public static final int BULLET2   = 2;
+  public static final int INVADER1A = 3;
+  public static final int INVADER1B = 4;
+  public static final int INVADER2A = 5;
+  public static final int INVADER2B = 6;
+  public static final int INVADER3A = 7;
+  public static final int INVADER3B = 8;
+  public static final int MYSTERY   = 9;
+  public static final int EXPLODE   = 10;
+  public static final int SHIELD    = 11; // one per shield, built from Frame.shield
+
+  public static final int NUM_SHIELDS = 4;
+
+  public static final int COUNT = SHIELD + NUM_SHIELDS;
+
+  /** Size of each sprite's image in pixels. */
+  public static final int WIDTH[] = {
+    57, 4, 9, 35, 35, 48, 48, 53, 53, 70, 57, 88, 88, 88, 88
+  };
+
+  public static final int HEIGHT[] = {
+    35, 26, 26, 35, 35, 35, 35, 35, 35, 31, 57, 58, 58, 58, 58
+  };
+}
@@ -0,0 +1,458 @@
+package colinw.org.space_invaders.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** Alien wave definitions (formation layout, speed curve, fire and mystery
+ *  ship rates), one per level with the last repeating.
+ *
+ *  Waves are written as text (see DEFAULT_SOURCE) and compiled once into
+ *  flat primitive tables which the game reads directly when a level
+ *  starts. The compiled tables can be written to a cache file, keyed by a
+ *  checksum of the source, so later startups skip the parse (see load).
+ *
+ *  Source format, one directive per line ('#' starts a comment):
+ *
+ *    wave                   start a wave
+ *    speed base per_level   formation speed (pixels/sec) base + per_level*level
+ *    fire rate              shots per second by each alien (on average)
+ *    mystery rate           appearances per second of the absent mystery ship
+ *    row cells              formation row, top first: 1-3 alien type, . empty
+ *
+ *  speed, fire and mystery default to the previous wave's values.
+ */
+public class Waves {
+  public static final int MAX_ROWS = 6;
+  public static final int MAX_COLS = 11;
+
+  public static final String DEFAULT_SOURCE =
+    "wave\n"                +
+    "speed 10 10\n"         +
+    "fire 0.05\n"           +
+    "mystery 0.02\n"        +
+    "row 11111111111\n"     +
+    "row 22222222222\n"     +
+    "row 22222222222\n"     +
+    "row 33333333333\n"     +
+    "row 33333333333\n";
+
+  /** The built in waves (the original fixed formation). */
+  public static final Waves DEFAULT;
+
+  static {
+    try {
+      DEFAULT = parse(DEFAULT_SOURCE);
+    }
+    catch (IOException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // compiled file: int MAGIC, byte VERSION, int source CRC32, int count,
+  // int total cells, per wave: byte rows, byte cols, short speed, short speed step,
+  // double fire rate, double mystery rate, rows*cols cell bytes
+  private static final int  MAGIC   = 0x41495756; // "AIWV"
+  private static final byte VERSION = 2;
+
+  private Waves(int count, int numCells) {
+    count_     = count;
+    rows_      = new byte   [count];
+    cols_      = new byte   [count];
+    speed_     = new short  [count];
+    speedStep_ = new short  [count];
+    fire_      = new double [count];
+    mystery_   = new double [count];
+    cellStart_ = new int    [count + 1];
+    cells_     = new byte   [numCells];
+    crc_       = 0;
+    checksum_  = 0;
+  }
+
+  public int count() { return count_; }
+
+  /** Wave played on level (from 1). */
+  public int forLevel(int level) { return Math.min(level, count_) - 1; }
+
+  public int rows(int wave) { return rows_[wave]; }
+  public int cols(int wave) { return cols_[wave]; }
+
+  /** Alien type (0-2) at row, col of wave, or -1 if empty. */
+  public int cell(int wave, int row, int col) {
+    return cells_[cellStart_[wave] + row*cols_[wave] + col] - 1;
+  }
+
+  /** Formation speed (pixels/sec) of wave on level. */
+  public int speed(int wave, int level) { return speed_[wave] + speedStep_[wave]*level; }
+
+  /** Rates per second, see the source format. */
+  public double fireRate   (int wave) { return fire_   [wave]; }
+  public double mysteryRate(int wave) { return mystery_[wave]; }
+
+  /** CRC32 of the compiled tables, the same for the same waves however
+   *  they were loaded (input logs record it, see InputLog). */
+  public int checksum() { return checksum_; }
+
+  /** Checksum the tables had when fire and mystery were chances per tick
+   *  at Game.TICK_RATE (older input logs record it, see InputLog). */
+  public int tickChecksum() { return tablesChecksum(Game.TICK_RATE); }
+
+  /** Most rows and columns of any wave. */
+  public int maxRows() { return max(rows_); }
+  public int maxCols() { return max(cols_); }
+
+  //--------------
+
+  /** Compile wave source text. Errors give the line number. */
+  public static Waves parse(String source) throws IOException {
+    ArrayList<int[]>   params = new ArrayList<int[]>();   // speed, step
+    ArrayList<double[]> rates = new ArrayList<double[]>(); // fire, mystery
+    ArrayList<ArrayList<String>> layouts = new ArrayList<ArrayList<String>>();
+
+    int    speed = 10, step = 10;
+    double fire  = 0.05, mystery = 0.02;
+    int    numCells = 0;
+
+    String lines[] = source.split("\n");
+
+    for (int n = 0; n < lines.length; ++n) {
+      String line = lines[n];
+
+      int hash = line.indexOf('#');
+
+      if (hash >= 0) line = line.substring(0, hash);
+
+      String words[] = line.trim().split("\\s+");
+
+      if (words[0].length() == 0) continue;
+
+      String key = words[0];
+
+      try {
+        if (key.equals("wave")) {
+          expect(words, 1);
+
+          layouts.add(new ArrayList<String>());
+          params .add(new int    [] { speed, step    });
+          rates  .add(new double [] { fire , mystery });
+
+          continue;
+        }
+
+        if (layouts.isEmpty())
+          throw new IOException("'" + key + "' before the first wave");
+
+        if      (key.equals("speed")) {
+          expect(words, 3);
+
+          speed = Integer.parseInt(words[1]);
+          step  = Integer.parseInt(words[2]);
+
+          if (speed < 0 || step < 0 || speed + step > Short.MAX_VALUE)
+            throw new IOException("bad speed");
+        }
+        else if (key.equals("fire")) {
+          expect(words, 2);
+
+          fire = rate(words[1]);
+        }
+        else if (key.equals("mystery")) {
+          expect(words, 2);
+
+          mystery = rate(words[1]);
+        }
+        else if (key.equals("row")) {
+          expect(words, 2);
+
+          ArrayList<String> rows = layouts.get(layouts.size() - 1);
+
+          String cells = words[1];
+
+          if (cells.length() > MAX_COLS)
+            throw new IOException("more than " + MAX_COLS + " columns");
+
+          if (! rows.isEmpty() && cells.length() != rows.get(0).length())
+            throw new IOException("rows have different lengths");
+
+          for (int c = 0; c < cells.length(); ++c)
+            if ("123.".indexOf(cells.charAt(c)) < 0)
+              throw new IOException("bad cell '" + cells.charAt(c) + "'");
+
+          if (rows.size() >= MAX_ROWS)
+            throw new IOException("more than " + MAX_ROWS + " rows");
+
+          rows.add(cells);
+
+          numCells += cells.length();
+        }
+        else
+          throw new IOException("unknown directive '" + key + "'");
+
+        // settings apply to the current wave (and carry on to the next)
+        int w = layouts.size() - 1;
+
+        params.get(w)[0] = speed; params.get(w)[1] = step;
+        rates .get(w)[0] = fire ; rates .get(w)[1] = mystery;
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("line " + (n + 1) + ": bad number");
+      }
+      catch (IOException e) {
+        throw new IOException("line " + (n + 1) + ": " + e.getMessage());
+      }
+    }
+
+    if (layouts.isEmpty())
+      throw new IOException("no waves");
+
+    Waves waves = new Waves(layouts.size(), numCells);
+
+    int pos = 0;
+
+    for (int w = 0; w < waves.count_; ++w) {
+      ArrayList<String> rows = layouts.get(w);
+
+      int numAliens = 0;
+
+      for (String cells : rows)
+        numAliens += cells.replace(".", "").length();
+
+      if (numAliens == 0)
+        throw new IOException("wave " + (w + 1) + " has no aliens");
+
+      waves.rows_     [w] = (byte) rows.size();
+      waves.cols_     [w] = (byte) rows.get(0).length();
+      waves.speed_    [w] = (short) params.get(w)[0];
+      waves.speedStep_[w] = (short) params.get(w)[1];
+      waves.fire_     [w] = rates.get(w)[0];
+      waves.mystery_  [w] = rates.get(w)[1];
+      waves.cellStart_[w] = pos;
+
+      for (String cells : rows)
+        for (int c = 0; c < cells.length(); ++c)
+          waves.cells_[pos++] = (byte) (cells.charAt(c) == '.' ? 0 : cells.charAt(c) - '0');
+    }
+
+    waves.cellStart_[waves.count_] = pos;
+
+    waves.checksum_ = waves.tablesChecksum();
+
+    return waves;
+  }
+
+  /** Compile source, or read the compiled cache if it was made from the
+   *  same source, then (re)write the cache if needed. A bad or unwritable
+   *  cache is ignored. */
+  public static Waves load(byte source[], File cache) throws IOException {
+    int crc = crc(source);
+
+    if (cache.exists()) {
+      try {
+        InputStream is = new FileInputStream(cache);
+
+        try {
+          Waves waves = read(is);
+
+          if (waves.crc_ == crc) return waves;
+        }
+        finally {
+          is.close();
+        }
+      }
+      catch (IOException e) {
+        // recompile
+      }
+    }
+
+    Waves waves = parse(new String(source, "UTF-8"));
+
+    waves.crc_ = crc;
+
+    // written to a temporary file and renamed, so a crash never leaves a
+    // half written cache
+    File tmp = new File(cache.getPath() + ".tmp");
+
+    try {
+      OutputStream os = new FileOutputStream(tmp);
+
+      try {
+        waves.write(os);
+      }
+      finally {
+        os.close();
+      }
+
+      if (! tmp.renameTo(cache))
+        tmp.delete();
+    }
+    catch (IOException e) {
+      tmp.delete();
+    }
+
+    return waves;
+  }
+
+  public void write(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+
+    out.writeInt (MAGIC);
+    out.writeByte(VERSION);
+    out.writeInt (crc_);
+
+    writeTables(out);
+
+    out.flush();
+  }
+
+  public static Waves read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(is);
+
+    if (in.readInt() != MAGIC)
+      throw new IOException("Not compiled waves");
+
+    int version = in.readByte();
+
+    if (version != VERSION)
+      throw new IOException("Unsupported compiled waves version " + version);
+
+    int crc      = in.readInt();
+    int count    = in.readInt();
+    int numCells = in.readInt();
+
+    if (count <= 0 || numCells <= 0 || numCells > count*MAX_ROWS*MAX_COLS)
+      throw new IOException("Bad compiled waves");
+
+    Waves waves = new Waves(count, numCells);
+
+    int pos = 0;
+
+    for (int w = 0; w < count; ++w) {
+      waves.rows_     [w] = in.readByte();
+      waves.cols_     [w] = in.readByte();
+      waves.speed_    [w] = in.readShort();
+      waves.speedStep_[w] = in.readShort();
+      waves.fire_     [w] = in.readDouble();
+      waves.mystery_  [w] = in.readDouble();
+      waves.cellStart_[w] = pos;
+
+      int rows = waves.rows_[w], cols = waves.cols_[w];
+
+      if (rows < 1 || rows > MAX_ROWS || cols < 1 || cols > MAX_COLS || pos + rows*cols > numCells)
+        throw new IOException("Bad wave size");
+
+      in.readFully(waves.cells_, pos, rows*cols);
+
+      pos += rows*cols;
+    }
+
+    if (pos != numCells)
+      throw new IOException("Bad compiled waves");
+
+    waves.cellStart_[count] = pos;
+
+    for (byte cell : waves.cells_)
+      if (cell < 0 || cell > 3)
+        throw new IOException("Bad wave cell");
+
+    waves.crc_      = crc;
+    waves.checksum_ = waves.tablesChecksum();
+
+    return waves;
+  }
+
+  //--------------
+
+  private void writeTables(DataOutputStream out) throws IOException {
+    writeTables(out, 1);
+  }
+
+  // rates are written divided by perSecond
+  private void writeTables(DataOutputStream out, int perSecond) throws IOException {
+    out.writeInt(count_);
+    out.writeInt(cells_.length);
+
+    for (int w = 0; w < count_; ++w) {
+      out.writeByte  (rows_[w]);
+      out.writeByte  (cols_[w]);
+      out.writeShort (speed_[w]);
+      out.writeShort (speedStep_[w]);
+      out.writeDouble(fire_   [w]/perSecond);
+      out.writeDouble(mystery_[w]/perSecond);
+      out.write      (cells_, cellStart_[w], cellStart_[w + 1] - cellStart_[w]);
+    }
+  }
+
+  private int tablesChecksum() {
+    return tablesChecksum(1);
+  }
+
+  private int tablesChecksum(int perSecond) {
+    CheckedOutputStream os = new CheckedOutputStream(new OutputStream() {
+      public void write(int b) { }
+    }, new CRC32());
+
+    try {
+      DataOutputStream out = new DataOutputStream(os);
+
+      writeTables(out, perSecond);
+
+      out.flush();
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return (int) os.getChecksum().getValue();
+  }
+
+  private static void expect(String words[], int n) throws IOException {
+    if (words.length != n)
+      throw new IOException("'" + words[0] + "' takes " + (n - 1) + " values");
+  }
+
+  private static double rate(String word) throws IOException {
+    double r = Double.parseDouble(word);
+
+    if (! (r >= 0 && r <= 1000))
+      throw new IOException("rate must be 0 to 1000");
+
+    return r;
+  }
+
+  private static int crc(byte data[]) {
+    CRC32 crc = new CRC32();
+
+    crc.update(data, 0, data.length);
+
+    return (int) crc.getValue();
+  }
+
+  private static int max(byte values[]) {
+    int m = 0;
+
+    for (byte v : values)
+      m = Math.max(m, v);
+
+    return m;
+  }
+
+  private int    count_;
+  private byte   rows_[];
+  private byte   cols_[];
+  private short  speed_[];
+  private short  speedStep_[];
+  private double fire_[];
+  private double mystery_[];
+  private int    cellStart_[]; // start of each wave's cells, row major
+  private byte   cells_[];     // alien type + 1, 0 for empty
+  private int    crc_;         // of the source (cache key)
+  private int    checksum_;    // of the compiled tables
+}
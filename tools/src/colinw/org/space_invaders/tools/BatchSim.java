@@ -0,0 +1,383 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.GameEvents;
+import colinw.org.space_invaders.core.GameStats;
+import colinw.org.space_invaders.core.Waves;
+
+/** Plays many complete games offline, spread over all cores, and prints
+ *  aggregate statistics (level reached, score and seconds played per game)
+ *  so balance changes can be evaluated without manual play.
+ *
+ *  Each game has its own seed, derived from the batch seed by game number,
+ *  so results do not depend on the number of threads. Games run until game
+ *  over or the time limit (game seconds). -waves plays a wave definition
+ *  file (see res/raw/waves.txt) instead of the built in waves, -tick-rate
+ *  runs the games at another rate (they should play the same).
+ *
+ *  Games start at -start-level (1) and move on through the levels as
+ *  waves are cleared. -aliens n leaves only the first n aliens of each
+ *  wave, so the players clear waves and the level progression (speeds,
+ *  later waves) gets played.
+ *
+ *  Players:
+ *    scripted - dodges alien bullets, otherwise moves under the nearest
+ *               alien column and fires (reads what is on screen like a
+ *               human would, through the game's accessors)
+ *    random   - holds a random direction for a while, with the odd single
+ *               step, and fires at random (see RandomDriver)
+ *
+ *  Usage: BatchSim [-games n] [-seed s] [-threads n] [-player scripted|random]
+ *                  [-max-seconds n] [-waves file] [-tick-rate n]
+ *                  [-start-level n] [-aliens n] */
+public class BatchSim {
+  private static final int BATCH_GAMES = 64;
+
+  interface Player {
+    /** Feed the game its input for the next tick. */
+    void play(Game game);
+  }
+
+  /** How each game is set up and how long it may run. */
+  static class Setup {
+    Waves waves      = Waves.DEFAULT;
+    int   tickRate   = Game.TICK_RATE;
+    int   maxSeconds = 10000;
+    int   startLevel = 1;
+    int   aliens     = 0; // keep the first n aliens of each wave, 0 all
+  }
+
+  static class Result {
+    int       score;
+    int       level;
+    int       ticks;
+    int       tickRate;
+    boolean   capped;
+    GameStats stats;
+
+    double seconds() { return (double) ticks/tickRate; }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int    games   = 10000;
+    long   seed    = System.nanoTime();
+    int    threads = Runtime.getRuntime().availableProcessors();
+    String player  = "scripted";
+    Setup  setup   = new Setup();
+
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+
+      if (i + 1 >= args.length) usage();
+
+      if      (arg.equals("-games"      )) games            = Integer.parseInt(args[++i]);
+      else if (arg.equals("-seed"       )) seed             = Long.parseLong(args[++i]);
+      else if (arg.equals("-threads"    )) threads          = Integer.parseInt(args[++i]);
+      else if (arg.equals("-player"     )) player           = args[++i];
+      else if (arg.equals("-max-seconds")) setup.maxSeconds = Integer.parseInt(args[++i]);
+      else if (arg.equals("-waves"      )) setup.waves      = loadWaves(args[++i]);
+      else if (arg.equals("-tick-rate"  )) setup.tickRate   = Integer.parseInt(args[++i]);
+      else if (arg.equals("-start-level")) setup.startLevel = Integer.parseInt(args[++i]);
+      else if (arg.equals("-aliens"     )) setup.aliens     = Integer.parseInt(args[++i]);
+      else usage();
+    }
+
+    if (games < 1 || threads < 1) usage();
+
+    if (createPlayer(player, 0) == null) usage();
+
+    if (setup.tickRate < 1 || setup.tickRate > Game.MAX_TICK_RATE) usage();
+
+    if (setup.startLevel < 1 || setup.aliens < 0) usage();
+
+    System.out.println(String.format("seed %d, %d games, %s player, %d threads, %d ticks/sec",
+                                     seed, games, player, threads, setup.tickRate));
+
+    if (setup.startLevel > 1 || setup.aliens > 0)
+      System.out.println(String.format("starting at level %d, %s aliens per wave", setup.startLevel,
+                                       setup.aliens > 0 ? "up to " + setup.aliens : "all"));
+
+    // per game seeds, fixed up front so they don't depend on scheduling
+    long seeds[] = new long [games];
+
+    Random rand = new Random(seed);
+
+    for (int i = 0; i < games; ++i)
+      seeds[i] = rand.nextLong();
+
+    Result results[] = new Result [games];
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+    Vector<Future<?>> futures = new Vector<Future<?>>();
+
+    long t1 = System.nanoTime();
+
+    for (int i = 0; i < games; i += BATCH_GAMES)
+      futures.add(pool.submit(new Batch(player, setup, seeds, results, i,
+                                        Math.min(i + BATCH_GAMES, games))));
+
+    for (Future<?> future : futures)
+      future.get();
+
+    long t2 = System.nanoTime();
+
+    pool.shutdown();
+
+    report(results, (t2 - t1)/1e9);
+  }
+
+  static void usage() {
+    System.err.println("Usage: BatchSim [-games n] [-seed s] [-threads n] " +
+                       "[-player scripted|random] [-max-seconds n] [-waves file] " +
+                       "[-tick-rate n] [-start-level n] [-aliens n]");
+    System.exit(1);
+  }
+
+  static Waves loadWaves(String file) throws IOException {
+    try {
+      return Waves.parse(new String(Files.readAllBytes(Paths.get(file)), "UTF-8"));
+    }
+    catch (IOException e) {
+      throw new IOException(file + ": " + e.getMessage());
+    }
+  }
+
+  static Player createPlayer(String name, long seed) {
+    if      (name.equals("scripted")) return new ScriptedPlayer();
+    else if (name.equals("random"  )) return new RandomDriver(seed, false);
+
+    return null;
+  }
+
+  // runs games [start, end) on one pool thread
+  static class Batch implements Runnable {
+    Batch(String player, Setup setup, long seeds[], Result results[], int start, int end) {
+      player_  = player;
+      setup_   = setup;
+      seeds_   = seeds;
+      results_ = results;
+      start_   = start;
+      end_     = end;
+    }
+
+    public void run() {
+      for (int i = start_; i < end_; ++i)
+        results_[i] = play(createPlayer(player_, ~seeds_[i]), setup_, seeds_[i]);
+    }
+
+    private String player_;
+    private Setup  setup_;
+    private long   seeds_[];
+    private Result results_[];
+    private int    start_, end_;
+  }
+
+  static Result play(Player player, Setup setup, long seed) {
+    Game      game  = new Game(seed, setup.waves, setup.tickRate);
+    GameStats stats = new GameStats();
+
+    game.addEventConsumer(stats);
+
+    // the level's wave and speed are set up as in play (AlienManager.reset)
+    game.startLevel(setup.startLevel);
+
+    int ticks    = 0;
+    int maxTicks = setup.maxSeconds*setup.tickRate;
+    int level    = 0;
+
+    while (! game.isGameOver() && ticks < maxTicks) {
+      // thin each wave as it starts
+      if (setup.aliens > 0 && game.getLevel() != level) {
+        level = game.getLevel();
+
+        game.thinFormation(setup.aliens);
+      }
+
+      player.play(game);
+
+      game.update();
+
+      ++ticks;
+    }
+
+    Result result = new Result();
+
+    result.score    = game.getScore();
+    result.level    = game.getLevel();
+    result.ticks    = ticks;
+    result.tickRate = setup.tickRate;
+    result.capped   = ! game.isGameOver();
+    result.stats    = stats;
+
+    return result;
+  }
+
+  //--------------
+
+  static class ScriptedPlayer implements Player {
+    private static final int STEPS  = 4;   // ship steps (touch moves) per decision
+    private static final int DANGER = 40;  // dodge bullets this close in x
+
+    public void play(Game game) {
+      // decides Game.TICK_RATE times a second whatever the tick rate, like
+      // a human's reaction time
+      if (game.getTick() % Math.max(1, game.getTickRate()/Game.TICK_RATE) != 0) return;
+
+      int px = game.getShipX();
+
+      if (px < 0) return;
+
+      int bulletX = -1, bulletY = -1;
+      int targetX = -1, targetY = -1;
+
+      // lowest alien bullet heading for the ship
+      for (int i = 0; i < game.getNumAlienBullets(); ++i) {
+        if (! game.isAlienBulletAlive(i)) continue;
+
+        int x = game.getAlienBulletX(i), y = game.getAlienBulletY(i);
+
+        if (Math.abs(x - px) < DANGER && y > bulletY) {
+          bulletX = x; bulletY = y;
+        }
+      }
+
+      // nearest alien column
+      for (int i = 0; i < game.getNumAliens(); ++i) {
+        if (! game.isAlienAlive(i)) continue;
+
+        int x = game.getAlienX(i);
+
+        if (targetY < 0 || Math.abs(x - px) < Math.abs(targetX - px)) {
+          targetX = x; targetY = game.getAlienY(i);
+        }
+      }
+
+      int dir = 0;
+
+      if (bulletY > 650) {
+        dir = (bulletX <= px ? 1 : -1);
+
+        // boxed in at the edge, go the other way
+        if ((dir > 0 && px > Game.SCREEN_WIDTH - 2*DANGER) || (dir < 0 && px < 2*DANGER))
+          dir = -dir;
+      }
+      else if (targetY >= 0) {
+        if      (targetX < px - STEPS) dir = -1;
+        else if (targetX > px + STEPS) dir =  1;
+      }
+
+      for (int i = 0; i < STEPS; ++i) {
+        if      (dir < 0) game.moveShipLeft ();
+        else if (dir > 0) game.moveShipRight();
+      }
+
+      game.shipFire();
+    }
+  }
+
+  //--------------
+
+  static void report(Result results[], double secs) {
+    int n = results.length;
+
+    int       scores[] = new int [n];
+    int       times [] = new int [n]; // tenths of a second
+    int       shots [] = new int [n];
+    int       capped   = 0;
+    long      total    = 0;
+    int       maxLevel = 0;
+    GameStats stats    = new GameStats();
+
+    for (int i = 0; i < n; ++i) {
+      scores[i] = results[i].score;
+      times [i] = (int) Math.round(10*results[i].seconds());
+      shots [i] = (int) results[i].stats.count(GameEvents.SHOT_FIRED);
+      total    += results[i].ticks;
+      maxLevel  = Math.max(maxLevel, results[i].level);
+
+      stats.add(results[i].stats);
+
+      if (results[i].capped) ++capped;
+    }
+
+    System.out.println(String.format("%d games, %d ticks in %.1f s (%.0f games/sec, %.0f ticks/sec)",
+                                     n, total, secs, n/secs, total/secs));
+
+    if (capped > 0)
+      System.out.println(String.format("%d games hit the time limit", capped));
+
+    System.out.println("level reached:");
+
+    int levels[] = new int [maxLevel + 1];
+
+    for (int i = 0; i < n; ++i)
+      ++levels[results[i].level];
+
+    for (int l = 1; l <= maxLevel; ++l) {
+      if (levels[l] == 0) continue;
+
+      System.out.println(String.format("  %3d %8d %6.2f%%", l, levels[l], 100.0*levels[l]/n));
+    }
+
+    System.out.println("score: " + distribution(scores));
+    System.out.println("secs:  " + distribution(times, 10));
+    System.out.println("shots: " + distribution(shots));
+
+    System.out.println(String.format("events: %d aliens and %d mystery ships killed, " +
+                                     "%d player hits, %d waves cleared, accuracy %.1f%%",
+                                     stats.count(GameEvents.ALIEN_KILLED),
+                                     stats.count(GameEvents.MYSTERY_KILLED),
+                                     stats.count(GameEvents.PLAYER_HIT),
+                                     stats.count(GameEvents.WAVE_CLEARED),
+                                     100*stats.accuracy()));
+  }
+
+  static String distribution(int values[]) {
+    int sorted[] = values.clone();
+
+    Arrays.sort(sorted);
+
+    return String.format("min %d p10 %d p50 %d p90 %d p99 %d max %d mean %.1f",
+                         sorted[0], percentile(sorted, 10), percentile(sorted, 50),
+                         percentile(sorted, 90), percentile(sorted, 99),
+                         sorted[sorted.length - 1], mean(sorted));
+  }
+
+  // values in 1/scale units, printed to one decimal place
+  static String distribution(int values[], int scale) {
+    int sorted[] = values.clone();
+
+    Arrays.sort(sorted);
+
+    double s = scale;
+
+    return String.format("min %.1f p10 %.1f p50 %.1f p90 %.1f p99 %.1f max %.1f mean %.1f",
+                         sorted[0]/s, percentile(sorted, 10)/s, percentile(sorted, 50)/s,
+                         percentile(sorted, 90)/s, percentile(sorted, 99)/s,
+                         sorted[sorted.length - 1]/s, mean(sorted)/s);
+  }
+
+  static double mean(int values[]) {
+    double sum = 0;
+
+    for (int v : values)
+      sum += v;
+
+    return sum/values.length;
+  }
+
+  static int percentile(int sorted[], int p) {
+    return sorted[Math.min(sorted.length - 1, p*sorted.length/100)];
+  }
+}
@@ -0,0 +1,107 @@
+package colinw.org.space_invaders.tools;
+
+import colinw.org.space_invaders.core.DrawList;
+import colinw.org.space_invaders.core.Entities;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.Sprite;
+
+/** Measures the entity store systems (Entities) on a stock JVM with a
+ *  growing number of live entities: each tick saves positions, moves
+ *  everything, tests a ship sized rectangle against every entity, draws
+ *  them all and respawns those that left the screen. The cost per entity
+ *  should stay flat from a handful to many thousands, and nothing should
+ *  be allocated per tick.
+ *
+ *  Each count runs for the same total number of entity updates.
+ *
+ *  Usage: EntityBenchmark [count ...] */
+public class EntityBenchmark {
+  private static final int STEPS = 1 << 24; // entity updates per count
+
+  public static void main(String[] args) {
+    int counts[] = { 16, 256, 4096, 65536 };
+
+    if (args.length > 0) {
+      counts = new int [args.length];
+
+      for (int i = 0; i < args.length; ++i)
+        counts[i] = Integer.parseInt(args[i]);
+    }
+
+    // compile the systems before timing anything
+    new Swarm(1024).run(STEPS/1024);
+
+    for (int n : counts) {
+      int runTicks = Math.max(STEPS/n, 100);
+
+      Swarm swarm = new Swarm(n);
+
+      swarm.run(runTicks/10);
+
+      long t1 = System.nanoTime();
+
+      swarm.run(runTicks);
+
+      long t2 = System.nanoTime();
+
+      long b1 = TickBenchmark.allocatedBytes();
+
+      swarm.run(runTicks);
+
+      long b2 = TickBenchmark.allocatedBytes();
+      long b3 = TickBenchmark.allocatedBytes();
+
+      double bytesPerTick = Math.max(0, (b2 - b1) - (b3 - b2))/(double) runTicks;
+
+      System.out.println(String.format("%6d entities %10.1f us/tick %6.2f ns/entity %8.3f bytes/tick",
+                                       n, (t2 - t1)/1e3/runTicks,
+                                       (t2 - t1)/(double) runTicks/n, bytesPerTick));
+    }
+  }
+
+  // n bullets falling at random speeds, respawned at the top
+  static class Swarm {
+    Swarm(int n) {
+      n_        = n;
+      entities_ = new Entities(n, Game.TICK_RATE, 0, 0, Game.SCREEN_WIDTH, Game.SCREEN_HEIGHT);
+      list_     = new DrawList(n);
+      rand_     = 1;
+      hits_     = 0;
+
+      for (int i = 0; i < n; ++i)
+        entities_.add(1, Sprite.BULLET2, 9, 26, 0, (5 + next(30))*Game.TICK_RATE);
+    }
+
+    void run(int ticks) {
+      for (int t = 0; t < ticks; ++t) {
+        entities_.savePos();
+
+        entities_.update(0, n_);
+
+        if (entities_.findHit(0, n_, 372, 1033, 428, 1067) >= 0) ++hits_;
+
+        list_.clear();
+
+        entities_.draw(list_, 0, n_);
+
+        for (int i = 0; i < n_; ++i) {
+          if (entities_.isDead(i))
+            entities_.spawn(i, 1, next(Game.SCREEN_WIDTH), next(Game.SCREEN_HEIGHT/4));
+        }
+      }
+    }
+
+    // small LCG (java.util.Random would do, this keeps the loop lean)
+    private int next(int bound) {
+      rand_ = rand_*1103515245 + 12345;
+
+      return ((rand_ >>> 8) & 0xFFFFFF) % bound;
+    }
+
+    private int      n_;
+    private Entities entities_;
+    private DrawList list_;
+    private int      rand_;
+    private int      hits_;
+  }
+}
@@ -0,0 +1,180 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import colinw.org.space_invaders.core.HighScores;
+
+/** Checks the high score store on a plain JVM: records random games,
+ *  reopens the file and compares the table with one worked out from every
+ *  score, then cuts the file at random points (plus random junk, like a
+ *  write torn by a crash) and checks each recovers the scores written
+ *  before the cut and still appends correctly. Also prints how long open
+ *  takes and how many records it read.
+ *
+ *  Usage: HighScoreCheck [games] [seed] */
+public class HighScoreCheck {
+  private static final int SIZE   = 10;
+  private static final int TRIALS = 200;
+
+  // must match HighScores
+  private static final int HEADER           = 8;
+  private static final int RECORD           = 24;
+  private static final int CHECKPOINT_EVERY = 32;
+
+  public static void main(String[] args) throws IOException {
+    int  games = (args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+    long seed  = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+
+    System.out.println("seed " + seed);
+
+    Random rand = new Random(seed);
+
+    File file = File.createTempFile("high_scores", ".dat");
+    File copy = File.createTempFile("high_scores", ".cut");
+
+    file.deleteOnExit();
+    copy.deleteOnExit();
+
+    int  scores[] = new int  [games + 1];
+    int  levels[] = new int  [games + 1];
+    long ends  [] = new long [games]; // file offset after each score record
+
+    file.delete();
+
+    HighScores store = HighScores.open(file, SIZE);
+
+    long offset = HEADER;
+
+    for (int i = 0; i < games; ++i) {
+      scores[i] = 10*rand.nextInt(2000);
+      levels[i] = 1 + rand.nextInt(5);
+
+      store.add(scores[i], levels[i], i);
+
+      offset += RECORD;
+      ends[i] = offset;
+
+      if ((i + 1) % CHECKPOINT_EVERY == 0)
+        offset += RECORD*(Math.min(i + 1, SIZE) + 1);
+    }
+
+    store.close();
+
+    if (file.length() != offset)
+      fail("file is " + file.length() + " bytes, expected " + offset);
+
+    long t1 = System.nanoTime();
+
+    store = HighScores.open(file, SIZE);
+
+    long t2 = System.nanoTime();
+
+    check(store, scores, levels, games, "reopen");
+
+    System.out.println(String.format("%d games: open %.2f ms, read %d of %d records",
+                                     games, (t2 - t1)/1e6, store.recordsRead(),
+                                     (file.length() - HEADER)/RECORD));
+
+    store.close();
+
+    // torn tails
+    for (int t = 0; t < TRIALS; ++t) {
+      long cut = HEADER + (long) (rand.nextDouble()*(offset - HEADER));
+
+      copyFile(file, copy, cut, rand.nextInt(2*RECORD), rand);
+
+      // scores written completely before the cut survive
+      int n = 0;
+
+      while (n < games && ends[n] <= cut) ++n;
+
+      store = HighScores.open(copy, SIZE);
+
+      check(store, scores, levels, n, "cut at " + cut);
+
+      // and the file still appends on a record boundary (borrowing game
+      // n's slot for the new score)
+      int score = scores[n], level = levels[n];
+
+      scores[n] = 1000000 + t;
+      levels[n] = 1;
+
+      store.add(scores[n], levels[n], n);
+
+      store.close();
+
+      store = HighScores.open(copy, SIZE);
+
+      check(store, scores, levels, n + 1, "append after cut at " + cut);
+
+      store.close();
+
+      scores[n] = score;
+      levels[n] = level;
+    }
+
+    System.out.println(String.format("%d torn files recovered", TRIALS));
+  }
+
+  // compare the table with the best SIZE of the first n scores (ties
+  // keep the earlier game, times are game numbers)
+  static void check(HighScores store, int scores[], int levels[], int n, String what) {
+    boolean used[] = new boolean [n];
+
+    int size = Math.min(n, SIZE);
+
+    if (store.size() != size)
+      fail(what + ": " + store.size() + " scores, expected " + size);
+
+    for (int i = 0; i < size; ++i) {
+      int best = -1;
+
+      for (int j = 0; j < n; ++j)
+        if (! used[j] && (best < 0 || scores[j] > scores[best])) best = j;
+
+      used[best] = true;
+
+      if (store.score(i) != scores[best] || store.level(i) != levels[best] ||
+          store.time(i) != best)
+        fail(what + ": entry " + i + " is " + store.score(i) + " (game " + store.time(i) +
+             "), expected " + scores[best] + " (game " + best + ")");
+    }
+  }
+
+  // copy the first length bytes of from and add junk random bytes
+  static void copyFile(File from, File to, long length, int junk, Random rand) throws IOException {
+    byte data[] = new byte [(int) length];
+
+    RandomAccessFile in = new RandomAccessFile(from, "r");
+
+    try {
+      in.readFully(data);
+    }
+    finally {
+      in.close();
+    }
+
+    byte tail[] = new byte [junk];
+
+    rand.nextBytes(tail);
+
+    RandomAccessFile out = new RandomAccessFile(to, "rw");
+
+    try {
+      out.setLength(0);
+      out.write(data);
+      out.write(tail);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  static void fail(String msg) {
+    System.err.println(msg);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,69 @@
+package colinw.org.space_invaders.tools;
+
+import java.util.Random;
+
+import colinw.org.space_invaders.core.Game;
+
+/** Randomized differential check of the grid based player bullet vs
+ *  alien lookup against the brute force loop over every alien.
+ *
+ *  Plays random games and, on every tick, probes random bullet sized and
+ *  larger rectangles around the formation. Exits non zero on the first
+ *  mismatch.
+ *
+ *  Usage: HitLookupCheck [games] [seed] */
+public class HitLookupCheck {
+  private static final int PROBES_PER_TICK = 50;
+  private static final int MAX_TICKS       = 20000;
+
+  public static void main(String[] args) {
+    int  games = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+    long seed  = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+
+    System.out.println("seed " + seed);
+
+    Random rand = new Random(seed);
+
+    long probes = 0;
+    long hits   = 0;
+
+    for (int g = 0; g < games; ++g) {
+      Game game = new Game(rand.nextLong());
+
+      game.startLevel(1 + rand.nextInt(10));
+
+      for (int t = 0; t < MAX_TICKS && ! game.isGameOver(); ++t) {
+        int c = rand.nextInt(4);
+
+        if      (c == 0) game.moveShipLeft();
+        else if (c == 1) game.moveShipRight();
+        else if (c == 2) game.shipFire();
+
+        game.update();
+
+        for (int i = 0; i < PROBES_PER_TICK; ++i) {
+          int w = (rand.nextInt(4) == 0 ? rand.nextInt(200) : 4);
+          int h = (rand.nextInt(4) == 0 ? rand.nextInt(200) : 26);
+          int x = rand.nextInt(Game.SCREEN_WIDTH  + 200) - 100;
+          int y = rand.nextInt(Game.SCREEN_HEIGHT + 200) - 100;
+
+          int i1 = game.findAlienHit(x, y, x + w, y + h, false);
+          int i2 = game.findAlienHit(x, y, x + w, y + h, true );
+
+          if (i1 != i2) {
+            System.err.println(String.format(
+              "Mismatch game %d tick %d rect (%d,%d,%d,%d): grid %d brute force %d",
+              g, t, x, y, x + w, y + h, i1, i2));
+            System.exit(1);
+          }
+
+          ++probes;
+
+          if (i1 >= 0) ++hits;
+        }
+      }
+    }
+
+    System.out.println(String.format("%d probes (%d hits) match", probes, hits));
+  }
+}
@@ -0,0 +1,52 @@
+package colinw.org.space_invaders.tools;
+
+import java.util.Random;
+
+import colinw.org.space_invaders.core.Game;
+
+/** Seeded random player shared by the tools. While playing it holds a
+ *  random direction for a while, with the odd single step, and fires at
+ *  random, all through the game's input queue. With menus it also starts
+ *  games, pauses and leaves them (a whole app session), otherwise it only
+ *  plays. It decides Game.TICK_RATE times a second at any tick rate, so
+ *  plays the same game at any rate. Never allocates once created.
+ *
+ *  Call play() before each tick. */
+class RandomDriver implements BatchSim.Player {
+  RandomDriver(long seed, boolean menus) {
+    rand_  = new Random(seed);
+    menus_ = menus;
+    calls_ = 0;
+  }
+
+  public void play(Game game) {
+    if (calls_++ % Math.max(1, game.getTickRate()/Game.TICK_RATE) != 0) return;
+
+    if      (game.isTitleScreen()) {
+      if (menus_ && rand_.nextInt(20) == 0) game.start();
+    }
+    else if (game.isGameOver() || game.isPaused()) {
+      if (menus_ && rand_.nextInt(20) == 0) {
+        if (rand_.nextBoolean()) game.back(); else game.pause();
+      }
+    }
+    else {
+      if (rand_.nextInt(10) == 0)
+        game.hold(rand_.nextInt(3) - 1);
+
+      if (rand_.nextInt(8) == 0) {
+        if (rand_.nextBoolean()) game.moveShipLeft(); else game.moveShipRight();
+      }
+
+      if (rand_.nextInt(3) == 0)
+        game.shipFire();
+
+      if (menus_ && rand_.nextInt(2000) == 0)
+        game.pause();
+    }
+  }
+
+  private Random  rand_;
+  private boolean menus_;
+  private long    calls_;
+}
@@ -0,0 +1,64 @@
+package colinw.org.space_invaders.tools;
+
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.RecordingRenderer;
+
+/** Plays a seeded game with a fixed input pattern, renders every tick
+ *  through a RecordingRenderer and prints draw call statistics and a
+ *  checksum of all rendered frames (identical output gives the same
+ *  checksum, so it can be compared across changes).
+ *
+ *  Usage: RenderCheck [ticks] [seed] */
+public class RenderCheck {
+  private static final int MAX_LERP = 100;
+
+  public static void main(String[] args) {
+    int  ticks = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+    long seed  = (args.length > 1 ? Long.parseLong(args[1]) : 1);
+
+    Game              game     = new Game(seed);
+    Frame             frame    = new Frame();
+    RecordingRenderer renderer = new RecordingRenderer();
+
+    game.start();
+
+    long sum = 0;
+
+    long t1 = System.nanoTime();
+
+    for (int t = 0; t < ticks; ++t) {
+      if (game.isGameOver()) game.restart();
+
+      if      (t % 16 <  6) game.moveShipLeft ();
+      else if (t % 16 < 12) game.moveShipRight();
+
+      if (t % 3 == 0) game.shipFire();
+
+      game.update();
+
+      game.snapshot(frame);
+
+      // a render half way through the tick and one at its end
+      frame.sprites().render(renderer, 0.5f, MAX_LERP);
+
+      sum = sum*31 + renderer.checksum();
+
+      frame.sprites().render(renderer, 1.0f, MAX_LERP);
+
+      sum = sum*31 + renderer.checksum();
+    }
+
+    long t2 = System.nanoTime();
+
+    long frames = renderer.frames();
+
+    System.out.println(String.format("%d frames in %.1f ms, checksum %016x",
+                                     frames, (t2 - t1)/1e6, sum));
+    System.out.println(String.format("draws/frame %.1f (max %d), bitmap switches/frame %.1f, " +
+                                     "atlas batches/frame %.1f",
+                                     (double) renderer.totalDraws  ()/frames, renderer.maxDraws(),
+                                     (double) renderer.totalBinds  ()/frames,
+                                     (double) renderer.totalBatches()/frames));
+  }
+}
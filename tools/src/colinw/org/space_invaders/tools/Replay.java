@@ -0,0 +1,249 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import colinw.org.space_invaders.core.BitMask;
+import colinw.org.space_invaders.core.DrawList;
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.GameEvents;
+import colinw.org.space_invaders.core.GameStats;
+import colinw.org.space_invaders.core.InputLog;
+import colinw.org.space_invaders.core.Replayer;
+import colinw.org.space_invaders.core.Waves;
+
+/** Replays recorded input logs as fast as possible, records logs from a
+ *  random player and checks that replays are exact.
+ *
+ *    Replay log ...                     replay each log, print final state
+ *    Replay -record log [ticks] [seed]  record a random player session
+ *    Replay -check [sessions] [seed]    record random sessions, write and
+ *                                       read them back, replay and compare
+ *                                       every tick's frame (exit 1 if not)
+ *
+ *  A leading -waves file plays a wave definition file instead of the built
+ *  in waves (a log only replays with the waves it was recorded with). */
+public class Replay {
+  private static final int CHECK_TICKS = 20000;
+
+  public static void main(String[] args) throws IOException {
+    Waves waves = Waves.DEFAULT;
+
+    if (args.length > 1 && args[0].equals("-waves")) {
+      waves = BatchSim.loadWaves(args[1]);
+
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+
+    if (args.length == 0) {
+      System.err.println("Usage: Replay [-waves file] log ... | -record log [ticks] [seed] | " +
+                         "-check [sessions] [seed]");
+      System.exit(1);
+    }
+
+    if      (args[0].equals("-record")) {
+      int  ticks = (args.length > 2 ? Integer.parseInt(args[2]) : CHECK_TICKS);
+      long seed  = (args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime());
+
+      InputLog log = record(new Random(seed), waves, ticks, null);
+
+      OutputStream os = new FileOutputStream(args[1]);
+
+      try {
+        log.write(os);
+      }
+      finally {
+        os.close();
+      }
+
+      System.out.println(String.format("%s: %d ticks, %d with input", args[1],
+                                       log.numTicks(), log.size()));
+    }
+    else if (args[0].equals("-check")) {
+      int  sessions = (args.length > 1 ? Integer.parseInt(args[1]) : 50);
+      long seed     = (args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime());
+
+      System.out.println("seed " + seed);
+
+      check(new Random(seed), waves, sessions);
+    }
+    else {
+      for (String name : args)
+        replay(name, waves);
+    }
+  }
+
+  static void replay(String name, Waves waves) throws IOException {
+    InputStream is = new FileInputStream(name);
+
+    InputLog log;
+
+    try {
+      log = InputLog.read(is);
+    }
+    finally {
+      is.close();
+    }
+
+    if (! log.playedWaves(waves)) {
+      System.err.println(name + ": recorded with different waves");
+      System.exit(1);
+    }
+
+    Replayer  replayer = new Replayer(log, waves);
+    GameStats stats    = new GameStats();
+
+    replayer.game().addEventConsumer(stats);
+
+    long t1 = System.nanoTime();
+
+    replayer.run();
+
+    long t2 = System.nanoTime();
+
+    Game game = replayer.game();
+
+    System.out.println(String.format(
+      "%s: %d ticks in %.1f ms (%.0f ticks/sec) score %d level %d lives %d aliens %d",
+      name, log.numTicks(), (t2 - t1)/1e6, 1e9*log.numTicks()/(t2 - t1),
+      game.getScore(), game.getLevel(), game.getLives(), game.getNumAliens()));
+
+    System.out.println(String.format(
+      "  %d shots, %d aliens and %d mystery ships killed, %d hits taken, %d games",
+      stats.count(GameEvents.SHOT_FIRED), stats.count(GameEvents.ALIEN_KILLED),
+      stats.count(GameEvents.MYSTERY_KILLED), stats.count(GameEvents.PLAYER_HIT),
+      stats.count(GameEvents.GAME_ENDED)));
+  }
+
+  static void check(Random rand, Waves waves, int sessions) throws IOException {
+    long ticks = 0;
+    long bytes = 0;
+
+    for (int s = 0; s < sessions; ++s) {
+      long hashes[] = new long [CHECK_TICKS];
+
+      InputLog log = record(rand, waves, CHECK_TICKS, hashes);
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+      log.write(os);
+
+      InputLog log1 = InputLog.read(new ByteArrayInputStream(os.toByteArray()));
+
+      Replayer  replayer = new Replayer(log1, waves);
+      Frame     frame    = new Frame();
+      EventHash events   = new EventHash();
+
+      replayer.game().addEventConsumer(events);
+
+      for (int t = 0; replayer.step(); ++t) {
+        replayer.game().snapshot(frame);
+
+        if (mix(hash(frame), events.value()) != hashes[t]) {
+          System.err.println(String.format("Mismatch session %d (seed %d) tick %d",
+                                           s, log.seed(), t + 1));
+          System.exit(1);
+        }
+      }
+
+      if (replayer.game().getTick() != CHECK_TICKS) {
+        System.err.println(String.format("Session %d replayed %d of %d ticks",
+                                         s, replayer.game().getTick(), CHECK_TICKS));
+        System.exit(1);
+      }
+
+      ticks += CHECK_TICKS;
+      bytes += os.size();
+    }
+
+    System.out.println(String.format("%d sessions, %d ticks replayed exactly (%.2f log bytes/tick)",
+                                     sessions, ticks, (double) bytes/ticks));
+  }
+
+  // play a random player for the given ticks, storing each tick's frame
+  // and event hash in hashes (if not null)
+  static InputLog record(Random rand, Waves waves, int ticks, long hashes[]) {
+    Game      game   = new Game(rand.nextLong(), waves);
+    InputLog  log    = new InputLog(game.getSeed(), waves.checksum(), game.getTickRate(), ticks);
+    Frame     frame  = new Frame();
+    EventHash events = new EventHash();
+
+    game.setInputLog(log);
+
+    game.addEventConsumer(events);
+
+    RandomDriver driver = new RandomDriver(rand.nextLong(), true);
+
+    for (int t = 0; t < ticks; ++t) {
+      driver.play(game);
+
+      game.update();
+
+      if (hashes != null) {
+        game.snapshot(frame);
+
+        hashes[t] = mix(hash(frame), events.value());
+      }
+    }
+
+    return log;
+  }
+
+  static long hash(Frame frame) {
+    long h = frame.tick();
+
+    h = mix(h, frame.score());
+    h = mix(h, frame.lives());
+    h = mix(h, frame.level());
+    h = mix(h, (frame.isTitleScreen() ? 1 : 0) | (frame.isPaused() ? 2 : 0) |
+               (frame.isGameOver() ? 4 : 0));
+
+    DrawList l = frame.sprites();
+
+    for (int i = 0; i < l.size(); ++i) {
+      h = mix(h, l.sprite(i));
+      h = mix(h, l.x(i));
+      h = mix(h, l.y(i));
+    }
+
+    // shield contents rather than versions, which only count changes
+    for (int i = 0; i < frame.numShields(); ++i) {
+      BitMask mask = frame.shield(i);
+
+      for (int y = 0; y < mask.height(); ++y)
+        for (int w = 0; w < mask.wordsPerRow(); ++w)
+          h = mix(h, mask.word(y, w));
+    }
+
+    return h;
+  }
+
+  // hash of every event so far (tick, type, position and value)
+  static class EventHash implements GameEvents.Consumer {
+    public void consume(GameEvents events, long tick) {
+      for (int i = 0; i < events.size(); ++i) {
+        h_ = mix(h_, tick);
+        h_ = mix(h_, events.type (i));
+        h_ = mix(h_, events.x    (i));
+        h_ = mix(h_, events.y    (i));
+        h_ = mix(h_, events.value(i));
+      }
+    }
+
+    long value() { return h_; }
+
+    private long h_;
+  }
+
+  static long mix(long h, long v) {
+    return (h ^ v)*0x100000001b3L;
+  }
+}
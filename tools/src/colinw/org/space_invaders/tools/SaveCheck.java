@@ -0,0 +1,117 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+
+/** Checks saved games continue exactly: plays random sessions, saves each
+ *  at a random tick, restores it into a new Game and runs both on with the
+ *  same input, comparing every tick's frame (exit 1 if any differ). Also
+ *  checks a restored game saves to the same bytes and prints the saved
+ *  size and save/restore times.
+ *
+ *  Usage: SaveCheck [sessions] [seed] */
+public class SaveCheck {
+  private static final int MAX_SAVE_TICK = 5000;
+  private static final int AFTER_TICKS   = 2000;
+
+  public static void main(String[] args) throws IOException {
+    int  sessions = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+    long seed     = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+
+    System.out.println("seed " + seed);
+
+    Random rand = new Random(seed);
+
+    long saveTimes   [] = new long [sessions];
+    long restoreTimes[] = new long [sessions];
+    long bytes = 0, maxBytes = 0;
+
+    for (int s = 0; s < sessions; ++s) {
+      Game         game   = new Game(rand.nextLong());
+      RandomDriver driver = new RandomDriver(rand.nextLong(), true);
+
+      for (int t = rand.nextInt(MAX_SAVE_TICK); t > 0; --t) {
+        driver.play(game);
+
+        game.update();
+      }
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+      long t1 = System.nanoTime();
+
+      game.saveState(os);
+
+      long t2 = System.nanoTime();
+
+      byte data[] = os.toByteArray();
+
+      Game game1 = Game.restoreState(new ByteArrayInputStream(data));
+
+      long t3 = System.nanoTime();
+
+      saveTimes   [s] = t2 - t1;
+      restoreTimes[s] = t3 - t2;
+
+      bytes   += data.length;
+      maxBytes = Math.max(maxBytes, data.length);
+
+      ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+
+      game1.saveState(os1);
+
+      if (! Arrays.equals(data, os1.toByteArray()))
+        fail(s, game, "restored game saves differently");
+
+      // the held direction isn't saved, so release it in both
+      game .hold(0);
+      game1.hold(0);
+
+      long driverSeed = rand.nextLong();
+
+      // fresh frames, shields are only copied when their version changes
+      Frame frame1 = new Frame();
+      Frame frame2 = new Frame();
+
+      RandomDriver driver1 = new RandomDriver(driverSeed, true);
+      RandomDriver driver2 = new RandomDriver(driverSeed, true);
+
+      for (int t = 0; t < AFTER_TICKS; ++t) {
+        driver1.play(game);
+        driver2.play(game1);
+
+        game .update();
+        game1.update();
+
+        game .snapshot(frame1);
+        game1.snapshot(frame2);
+
+        if (Replay.hash(frame1) != Replay.hash(frame2))
+          fail(s, game, "frames differ " + (t + 1) + " ticks after restore");
+      }
+    }
+
+    Arrays.sort(saveTimes);
+    Arrays.sort(restoreTimes);
+
+    System.out.println(String.format("%d sessions continued exactly for %d ticks after restore",
+                                     sessions, AFTER_TICKS));
+    System.out.println(String.format("saved size mean %d max %d bytes",
+                                     bytes/sessions, maxBytes));
+    System.out.println(String.format("save p50 %.1f us max %.1f us, restore p50 %.1f us max %.1f us",
+                                     saveTimes   [sessions/2]/1e3, saveTimes   [sessions - 1]/1e3,
+                                     restoreTimes[sessions/2]/1e3, restoreTimes[sessions - 1]/1e3));
+  }
+
+  static void fail(int session, Game game, String msg) {
+    System.err.println(String.format("Session %d (seed %d, tick %d): %s",
+                                     session, game.getSeed(), game.getTick(), msg));
+    System.exit(1);
+  }
+}
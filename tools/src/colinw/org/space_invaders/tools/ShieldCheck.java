@@ -0,0 +1,160 @@
+package colinw.org.space_invaders.tools;
+
+import colinw.org.space_invaders.core.BitMask;
+import colinw.org.space_invaders.core.DrawList;
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.Sprite;
+
+/** Checks on a plain JVM that bullets never pass through a solid shield
+ *  pixel. The ship is walked along under every shield, firing repeatedly
+ *  from each column it can stop at, while the aliens fire back. After
+ *  every tick the area each live bullet swept since the start of the tick
+ *  must be clear in every shield (a bullet that touches a solid pixel
+ *  dies there).
+ *
+ *  Usage: ShieldCheck [shots per column] [seed] */
+public class ShieldCheck {
+  // bullet colliders (must match Game), half width and half height
+  private static final int BULLET1_HW = 2, BULLET1_HH = 13;
+  private static final int BULLET2_HW = 4, BULLET2_HH = 13;
+
+  // ship half width and step per move input (must match Game)
+  private static final int SHIP_HW = 28;
+  private static final int SHIP_DX = 8;
+
+  private static final int FIRE_TICKS = 8; // shortest gap between shots
+
+  public static void main(String[] args) {
+    int  shots = (args.length > 0 ? Integer.parseInt(args[0]) : 12);
+    long seed  = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+
+    System.out.println("seed " + seed);
+
+    Checker check = new Checker(seed);
+
+    // shields are drawn at their top left (the draw list is rewritten
+    // each tick, so take their extents first)
+    DrawList l = check.frame_.sprites();
+
+    int x1s[] = new int [Sprite.NUM_SHIELDS];
+    int x2s[] = new int [Sprite.NUM_SHIELDS];
+
+    for (int i = 0; i < l.size(); ++i) {
+      int s = l.sprite(i);
+
+      if (s < Sprite.SHIELD || s >= Sprite.SHIELD + Sprite.NUM_SHIELDS) continue;
+
+      x1s[s - Sprite.SHIELD] = l.x(i);
+      x2s[s - Sprite.SHIELD] = l.x(i) + check.frame_.shield(s - Sprite.SHIELD).width() - 1;
+    }
+
+    for (int i = 0; i < Sprite.NUM_SHIELDS; ++i) {
+      // every column the ship can stop at with its centre over the shield
+      int x = Game.SCREEN_WIDTH/2 + (x1s[i] - Game.SCREEN_WIDTH/2)/SHIP_DX*SHIP_DX;
+
+      for (; x <= x2s[i]; x += SHIP_DX) {
+        check.moveTo(x);
+
+        for (int n = 0; n < shots*FIRE_TICKS; ++n) {
+          if (n % FIRE_TICKS == 0)
+            check.game_.shipFire();
+
+          check.tick();
+        }
+      }
+    }
+
+    System.out.println(String.format("%d ticks, %d bullet positions checked, %d restarts",
+                                     check.ticks_, check.bullets_, check.restarts_));
+  }
+
+  static class Checker {
+    Checker(long seed) {
+      game_     = new Game(seed);
+      frame_    = new Frame();
+      ticks_    = 0;
+      bullets_  = 0;
+      restarts_ = 0;
+
+      game_.start();
+
+      tick();
+    }
+
+    void moveTo(int x) {
+      for (int n = 0; n < 1000 && shipX() != x; ++n) {
+        game_.input(0, Math.max(-127, Math.min((x - shipX())/SHIP_DX, 127)));
+
+        tick();
+      }
+    }
+
+    void tick() {
+      if (game_.isGameOver()) {
+        game_.restart();
+
+        ++restarts_;
+      }
+
+      game_.update();
+
+      game_.snapshot(frame_);
+
+      ++ticks_;
+
+      DrawList l = frame_.sprites();
+
+      for (int i = 0; i < l.size(); ++i) {
+        int s = l.sprite(i);
+
+        if      (s == Sprite.BULLET1) check(l, i, BULLET1_HW, BULLET1_HH);
+        else if (s == Sprite.BULLET2) check(l, i, BULLET2_HW, BULLET2_HH);
+      }
+    }
+
+    // swept collider of draw list entry i against every shield
+    void check(DrawList l, int i, int hw, int hh) {
+      int x1 = l.x(i), x2 = x1 + 2*hw;
+      int y1 = Math.min(l.y(i), l.prevY(i));
+      int y2 = Math.max(l.y(i), l.prevY(i)) + 2*hh;
+
+      ++bullets_;
+
+      for (int j = 0; j < l.size(); ++j) {
+        int s = l.sprite(j);
+
+        if (s < Sprite.SHIELD || s >= Sprite.SHIELD + Sprite.NUM_SHIELDS) continue;
+
+        BitMask mask = frame_.shield(s - Sprite.SHIELD);
+
+        int sx = l.x(j), sy = l.y(j);
+
+        int row = mask.firstRow(x1 - sx, y1 - sy, x2 - sx, y2 - sy, true);
+
+        if (row >= 0) {
+          System.err.println(String.format("tick %d: bullet at %d,%d (from %d,%d) passed solid " +
+                                           "row %d of shield %d", game_.getTick(), l.x(i),
+                                           l.y(i), l.prevX(i), l.prevY(i), row,
+                                           s - Sprite.SHIELD));
+          System.exit(1);
+        }
+      }
+    }
+
+    int shipX() {
+      DrawList l = frame_.sprites();
+
+      for (int i = 0; i < l.size(); ++i)
+        if (l.sprite(i) == Sprite.PLAYER) return l.x(i) + SHIP_HW;
+
+      return Game.SCREEN_WIDTH/2;
+    }
+
+    private Game  game_;
+    private Frame frame_;
+    private long  ticks_;
+    private long  bullets_;
+    private int   restarts_;
+  }
+}
@@ -0,0 +1,211 @@
+package colinw.org.space_invaders.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Vector;
+
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.InputLog;
+import colinw.org.space_invaders.core.Profiler;
+import colinw.org.space_invaders.core.Waves;
+
+/** Measures Game.update() throughput (ticks/sec) on a stock JVM, with the
+ *  ship moved and fired by a seeded RandomDriver before each tick (so the
+ *  input queue, bullets and hits are exercised as in play). Like the app
+ *  the seeded game records its input into an InputLog.
+ *
+ *  Scenarios:
+ *    full  - level 1, full 55 alien wave
+ *    late  - level 10, full wave at late level speed
+ *    empty - level 1, single alien left
+ *
+ *  Also reports heap bytes allocated per tick (update() plus snapshot()),
+ *  which should be zero in steady state. With -check the exit status is
+ *  non zero if any scenario allocates.
+ *
+ *  With -profile the game records per phase timings into a Profiler (to
+ *  measure the profiling overhead) and the histograms are printed.
+ *
+ *  Usage: TickBenchmark [-check] [-profile] [scenario ...] */
+public class TickBenchmark {
+  private static final int  WARMUP_ROUNDS  = 5;
+  private static final int  MEASURE_ROUNDS = 10;
+  private static final int  ROUND_TICKS    = 200000;
+  private static final long GAME_SEED      = 1;
+  private static final long DRIVER_SEED    = 2;
+
+  interface Scenario {
+    void setup(Game game);
+  }
+
+  static class Result {
+    Result(String name, double ticksPerSec, double minTicksPerSec, int restarts,
+           double bytesPerTick) {
+      name_           = name;
+      ticksPerSec_    = ticksPerSec;
+      minTicksPerSec_ = minTicksPerSec;
+      restarts_       = restarts;
+      bytesPerTick_   = bytesPerTick;
+    }
+
+    boolean allocates() { return bytesPerTick_ > 0; }
+
+    public String toString() {
+      return String.format("%-6s %12.0f ticks/sec (min %12.0f) %6d restarts %8.3f bytes/tick",
+                           name_, ticksPerSec_, minTicksPerSec_, restarts_, bytesPerTick_);
+    }
+
+    private String name_;
+    private double ticksPerSec_;
+    private double minTicksPerSec_;
+    private int    restarts_;
+    private double bytesPerTick_;
+  }
+
+  public static void main(String[] args) {
+    boolean check   = false;
+    boolean profile = false;
+
+    Vector<String> names = new Vector<String>();
+
+    for (String arg : args) {
+      if      (arg.equals("-check"))
+        check = true;
+      else if (arg.equals("-profile"))
+        profile = true;
+      else
+        names.add(arg);
+    }
+
+    if (names.isEmpty())
+      names.addAll(Arrays.asList("full", "late", "empty"));
+
+    boolean allocates = false;
+
+    for (String name : names) {
+      Scenario scenario = scenario(name);
+
+      if (scenario == null) {
+        System.err.println("Unknown scenario: " + name);
+        System.exit(1);
+      }
+
+      Profiler profiler = (profile ? new Profiler() : null);
+
+      Result result = run(name, scenario, profiler);
+
+      System.out.println(result);
+
+      if (profiler != null)
+        profiler.dump(System.out);
+
+      if (result.allocates())
+        allocates = true;
+    }
+
+    if (check && allocates) {
+      System.err.println("Steady state tick allocates");
+      System.exit(1);
+    }
+  }
+
+  static Scenario scenario(String name) {
+    if      (name.equals("full")) {
+      return new Scenario() {
+        public void setup(Game game) { game.startLevel(1); }
+      };
+    }
+    else if (name.equals("late")) {
+      return new Scenario() {
+        public void setup(Game game) { game.startLevel(10); }
+      };
+    }
+    else if (name.equals("empty")) {
+      return new Scenario() {
+        public void setup(Game game) { game.startLevel(1); game.thinFormation(1); }
+      };
+    }
+
+    return null;
+  }
+
+  static Result run(String name, Scenario scenario, Profiler profiler) {
+    Game         game   = new Game(GAME_SEED);
+    Frame        frame  = new Frame();
+    RandomDriver driver = new RandomDriver(DRIVER_SEED, false);
+
+    // room for every tick's input, so it records throughout
+    game.setInputLog(new InputLog(GAME_SEED, Waves.DEFAULT.checksum(), game.getTickRate(),
+                                  (WARMUP_ROUNDS + MEASURE_ROUNDS + 1)*ROUND_TICKS));
+
+    game.setProfiler(profiler);
+
+    scenario.setup(game);
+
+    int restarts[] = new int [1];
+
+    for (int i = 0; i < WARMUP_ROUNDS; ++i)
+      round(game, driver, scenario, frame, restarts);
+
+    restarts[0] = 0;
+
+    double rates[] = new double [MEASURE_ROUNDS];
+
+    for (int i = 0; i < MEASURE_ROUNDS; ++i) {
+      long t = round(game, driver, scenario, frame, restarts);
+
+      rates[i] = 1e9*ROUND_TICKS/t;
+    }
+
+    Arrays.sort(rates);
+
+    // separate pass for allocation so the measurement calls don't
+    // perturb the timings
+    long b1 = allocatedBytes();
+
+    round(game, driver, scenario, frame, restarts);
+
+    long b2 = allocatedBytes();
+
+    // allocatedBytes() itself allocates a little, measure that too
+    long b3 = allocatedBytes();
+    long b4 = allocatedBytes();
+
+    double bytesPerTick = Math.max(0, (b2 - b1) - (b4 - b3))/(double) ROUND_TICKS;
+
+    return new Result(name, rates[MEASURE_ROUNDS/2], rates[0], restarts[0], bytesPerTick);
+  }
+
+  // run one round of ticks, re-applying the scenario whenever the game
+  // leaves it (game over or the wave advances to the next level)
+  static long round(Game game, RandomDriver driver, Scenario scenario, Frame frame,
+                    int restarts[]) {
+    int level = game.getLevel();
+
+    long t1 = System.nanoTime();
+
+    for (int i = 0; i < ROUND_TICKS; ++i) {
+      driver.play(game);
+
+      game.update();
+
+      game.snapshot(frame);
+
+      if (game.isGameOver() || game.getLevel() != level) {
+        scenario.setup(game);
+
+        ++restarts[0];
+      }
+    }
+
+    return System.nanoTime() - t1;
+  }
+
+  static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,197 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.IOException;
+import java.util.Random;
+
+import colinw.org.space_invaders.core.DrawList;
+import colinw.org.space_invaders.core.Frame;
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.GameEvents;
+import colinw.org.space_invaders.core.Sprite;
+import colinw.org.space_invaders.core.Waves;
+
+/** Checks a game plays the same at another tick rate as at the base
+ *  rate (exit 1 if not). Game.TICK_RATE plays by the original rules (see
+ *  Game), so it can't be either rate.
+ *
+ *  First the motion, exactly: with the aliens holding fire, the ship is
+ *  held right for a second after firing and the formation, ship and bullet
+ *  positions must match at every whole second. Then the play: batches of
+ *  scripted and random games (see BatchSim) at both rates must have the
+ *  the same score, seconds, shots, kills and hits per game on average,
+ *  within the tolerance or 3 standard errors (chances decide the games, so
+ *  they can't match exactly, and mystery ships are rare).
+ *
+ *  Usage: TickRateCheck [games] [seed] [tick rate] [tolerance %] [base rate] */
+public class TickRateCheck {
+  private static final int SECONDS = 12; // before the formation speeds up
+
+  private static final String STATS[] = {
+    "score", "seconds", "shots", "aliens killed", "mystery killed", "player hits"
+  };
+
+  public static void main(String[] args) throws IOException {
+    int    games     = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+    long   seed      = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+    int    rate      = (args.length > 2 ? Integer.parseInt(args[2]) : 120);
+    double tolerance = (args.length > 3 ? Double.parseDouble(args[3]) : 10);
+    int    baseRate  = (args.length > 4 ? Integer.parseInt(args[4]) : 60);
+
+    if (games < 1 || rate == Game.TICK_RATE || baseRate == Game.TICK_RATE) {
+      System.err.println("Usage: TickRateCheck [games] [seed] [tick rate] [tolerance %] [base rate]");
+      System.err.println("  games >= 1, neither rate " + Game.TICK_RATE + " (the original rules)");
+      System.exit(2);
+    }
+
+    System.out.println(String.format("seed %d, %d games, %d vs %d ticks/sec",
+                                     seed, games, baseRate, rate));
+
+    boolean ok = checkMotion(baseRate, rate);
+
+    Random rand = new Random(seed);
+
+    for (String player : new String[] { "scripted", "random" }) {
+      long seeds[] = new long [games];
+
+      for (int i = 0; i < games; ++i)
+        seeds[i] = rand.nextLong();
+
+      double base[][] = play(player, baseRate, seeds);
+      double test[][] = play(player, rate    , seeds);
+
+      for (int i = 0; i < STATS.length; ++i) {
+        double m1 = mean(base[i]), m2 = mean(test[i]);
+
+        double diff = 100*(m2 - m1)/Math.max(Math.abs(m1), 1e-9);
+
+        // standard error of the difference of the means
+        double se = Math.sqrt((variance(base[i]) + variance(test[i]))/games);
+
+        boolean within = (Math.abs(diff) <= tolerance || Math.abs(m2 - m1) <= 3*se);
+
+        System.out.println(String.format("%-8s %-14s %8.2f %8.2f %+6.1f%% (%.1f se)%s",
+                                         player, STATS[i], m1, m2, diff,
+                                         Math.abs(m2 - m1)/Math.max(se, 1e-9),
+                                         within ? "" : "  FAIL"));
+
+        if (! within) ok = false;
+      }
+    }
+
+    if (! ok) System.exit(1);
+  }
+
+  //--------------
+
+  static boolean checkMotion(int baseRate, int rate) throws IOException {
+    Waves waves = Waves.parse(Waves.DEFAULT_SOURCE.replaceAll("(fire|mystery) .*", "$1 0"));
+
+    int base[][] = motion(waves, baseRate);
+    int test[][] = motion(waves, rate);
+
+    for (int s = 0; s < SECONDS; ++s) {
+      for (int i = 0; i < base[s].length; ++i) {
+        if (base[s][i] != test[s][i]) {
+          System.out.println(String.format("second %d: formation x, y, ship x, bullet y %s at %d " +
+                                           "ticks/sec, %s at %d", s + 1,
+                                           str(base[s]), baseRate, str(test[s]), rate));
+          return false;
+        }
+      }
+    }
+
+    System.out.println(String.format("formation, ship and bullet at %d whole seconds match", SECONDS));
+
+    return true;
+  }
+
+  // formation top left, ship centre x and bullet centre y (or -1 once
+  // gone) after each whole second
+  static int[][] motion(Waves waves, int rate) {
+    Game  game  = new Game(1, waves, rate);
+    Frame frame = new Frame();
+
+    // all on the first tick, which is the first of the first second
+    game.start();
+    game.shipFire();
+    game.hold(1);
+
+    int pos[][] = new int [SECONDS][];
+
+    for (int s = 0; s < SECONDS; ++s) {
+      for (int t = 0; t < rate; ++t)
+        game.update();
+
+      if (s == 0) game.hold(0);
+
+      game.snapshot(frame);
+
+      DrawList l = frame.sprites();
+
+      int p[] = { Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1 };
+
+      for (int i = 0; i < l.size(); ++i) {
+        int sp = l.sprite(i);
+
+        if      (sp >= Sprite.INVADER1A && sp <= Sprite.INVADER3B) {
+          p[0] = Math.min(p[0], l.x(i));
+          p[1] = Math.min(p[1], l.y(i));
+        }
+        else if (sp == Sprite.PLAYER)
+          p[2] = l.x(i) + Sprite.WIDTH[sp]/2;
+        else if (sp == Sprite.BULLET1)
+          p[3] = l.y(i) + Sprite.HEIGHT[sp]/2;
+      }
+
+      pos[s] = p;
+    }
+
+    return pos;
+  }
+
+  static String str(int p[]) {
+    return String.format("%d, %d, %d, %d", p[0], p[1], p[2], p[3]);
+  }
+
+  //--------------
+
+  // each of STATS per game
+  static double[][] play(String player, int rate, long seeds[]) {
+    BatchSim.Setup setup = new BatchSim.Setup();
+
+    setup.tickRate = rate;
+
+    double stats[][] = new double [STATS.length][seeds.length];
+
+    for (int g = 0; g < seeds.length; ++g) {
+      BatchSim.Result r = BatchSim.play(BatchSim.createPlayer(player, ~seeds[g]), setup, seeds[g]);
+
+      stats[0][g] = r.score;
+      stats[1][g] = r.seconds();
+      stats[2][g] = r.stats.count(GameEvents.SHOT_FIRED);
+      stats[3][g] = r.stats.count(GameEvents.ALIEN_KILLED);
+      stats[4][g] = r.stats.count(GameEvents.MYSTERY_KILLED);
+      stats[5][g] = r.stats.count(GameEvents.PLAYER_HIT);
+    }
+
+    return stats;
+  }
+
+  static double mean(double values[]) {
+    double sum = 0;
+
+    for (double v : values)
+      sum += v;
+
+    return sum/values.length;
+  }
+
+  static double variance(double values[]) {
+    double m = mean(values), sum = 0;
+
+    for (double v : values)
+      sum += (v - m)*(v - m);
+
+    return sum/Math.max(values.length - 1, 1);
+  }
+}
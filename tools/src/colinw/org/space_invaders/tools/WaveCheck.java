@@ -0,0 +1,163 @@
+package colinw.org.space_invaders.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import colinw.org.space_invaders.core.Game;
+import colinw.org.space_invaders.core.InputLog;
+import colinw.org.space_invaders.core.Replayer;
+import colinw.org.space_invaders.core.Waves;
+
+/** Checks a wave definition file on a plain JVM: compiles it, checks the
+ *  compiled cache round trips (and is rebuilt when the source changes or
+ *  the cache is damaged), starts a game on each wave's level and checks
+ *  the formation matches the layout (also after a save and restore),
+ *  checks replays refuse logs recorded with other waves, then prints how
+ *  long a compile and a cache read take.
+ *
+ *  Usage: WaveCheck [file] [iterations] */
+public class WaveCheck {
+  public static void main(String[] args) throws IOException {
+    String file  = (args.length > 0 ? args[0] : "res/raw/waves.txt");
+    int    iters = (args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+
+    byte source[] = Files.readAllBytes(Paths.get(file));
+
+    Waves waves = Waves.parse(new String(source, "UTF-8"));
+
+    System.out.println(String.format("%s: %d waves, up to %d x %d, compiled %d bytes%s",
+                                     file, waves.count(), waves.maxRows(), waves.maxCols(),
+                                     compiled(waves).length,
+                                     (Arrays.equals(compiled(waves), compiled(Waves.DEFAULT)) ?
+                                      " (same as the built in waves)" : "")));
+
+    // cache
+    File cache = File.createTempFile("waves", ".bin");
+
+    cache.deleteOnExit();
+
+    cache.delete();
+
+    check(Waves.load(source, cache), waves, "compile");
+
+    if (! cache.exists())
+      fail("cache not written");
+
+    byte written[] = Files.readAllBytes(cache.toPath());
+
+    check(Waves.load(source, cache), waves, "cache read");
+
+    if (! Arrays.equals(Files.readAllBytes(cache.toPath()), written))
+      fail("cache rewritten when the source hadn't changed");
+
+    byte changed[] = Arrays.copyOf(source, source.length + 1);
+
+    changed[source.length] = '\n';
+
+    check(Waves.load(changed, cache), waves, "changed source");
+
+    if (Arrays.equals(Files.readAllBytes(cache.toPath()), written))
+      fail("cache not rebuilt after the source changed");
+
+    RandomAccessFile raf = new RandomAccessFile(cache, "rw");
+
+    try {
+      raf.setLength(raf.length()/2);
+    }
+    finally {
+      raf.close();
+    }
+
+    check(Waves.load(source, cache), waves, "damaged cache");
+
+    if (! Arrays.equals(Files.readAllBytes(cache.toPath()), written))
+      fail("damaged cache not rebuilt");
+
+    // formations
+    for (int w = 0; w < waves.count(); ++w) {
+      int aliens = 0;
+
+      for (int r = 0; r < waves.rows(w); ++r)
+        for (int c = 0; c < waves.cols(w); ++c)
+          if (waves.cell(w, r, c) >= 0) ++aliens;
+
+      Game game = new Game(w, waves);
+
+      game.startLevel(w + 1);
+
+      if (game.getNumAliens() != aliens)
+        fail("wave " + (w + 1) + ": " + game.getNumAliens() + " aliens, expected " + aliens);
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+      game.saveState(os);
+
+      Game restored = Game.restoreState(new ByteArrayInputStream(os.toByteArray()), waves);
+
+      if (restored.getNumAliens() != aliens || restored.getLevel() != w + 1)
+        fail("wave " + (w + 1) + ": restored " + restored.getNumAliens() + " aliens on level " +
+             restored.getLevel());
+    }
+
+    // replays
+    try {
+      new Replayer(new InputLog(1, waves.checksum() ^ 1), waves);
+
+      fail("replay accepted a log recorded with other waves");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // timing
+    String text = new String(source, "UTF-8");
+
+    long t1 = System.nanoTime();
+
+    for (int i = 0; i < iters; ++i)
+      Waves.parse(text);
+
+    long t2 = System.nanoTime();
+
+    for (int i = 0; i < iters; ++i)
+      Waves.read(new ByteArrayInputStream(written));
+
+    long t3 = System.nanoTime();
+
+    System.out.println(String.format("compile %.1f us, cache read %.1f us",
+                                     (t2 - t1)/1e3/iters, (t3 - t2)/1e3/iters));
+  }
+
+  static void check(Waves loaded, Waves expected, String what) throws IOException {
+    // loaded waves carry the source checksum, the rest must match
+    if (! Arrays.equals(body(compiled(loaded)), body(compiled(expected))))
+      fail(what + ": tables differ");
+
+    if (loaded.checksum() != expected.checksum())
+      fail(what + ": checksums differ");
+  }
+
+  static byte[] compiled(Waves waves) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    waves.write(os);
+
+    return os.toByteArray();
+  }
+
+  // compiled tables less the header (magic, version and checksum)
+  static byte[] body(byte data[]) {
+    return Arrays.copyOfRange(data, 9, data.length);
+  }
+
+  static void fail(String msg) {
+    System.err.println(msg);
+    System.exit(1);
+  }
+}